@@ -0,0 +1,61 @@
+package Utilities;
+
+/**
+ * FingerprintSet that answers most misses from a BlockedBloomFilter and
+ * only consults the exact set when the filter says the key may be present.
+ * Keeps counts so the filter's false positive rate can be reported.
+ */
+public class BloomFilteredSet implements FingerprintSet {
+    private BlockedBloomFilter filter;
+    private FingerprintSet exact;
+    private long numFilterNegatives;
+    private long numFalsePositives;
+
+    public BloomFilteredSet(FingerprintSet exact, int expectedKeys) {
+        this.exact = exact;
+        filter = new BlockedBloomFilter(expectedKeys);
+    }
+
+    public boolean add(long fingerprint) {
+        filter.put(fingerprint);
+        return exact.add(fingerprint);
+    }
+
+    public boolean contains(long fingerprint) {
+        if (!filter.mightContain(fingerprint)) {
+            numFilterNegatives ++;
+            return false;
+        }
+        if (!exact.contains(fingerprint)) {
+            numFalsePositives ++;
+            return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        return exact.size();
+    }
+
+    /**
+     * Lookups answered by the filter alone
+     */
+    public long getNumFilterNegatives() {
+        return numFilterNegatives;
+    }
+
+    /**
+     * Lookups the filter passed on that the exact set then rejected
+     */
+    public long getNumFalsePositives() {
+        return numFalsePositives;
+    }
+
+    /**
+     * Fraction of lookups for absent keys that the filter let through
+     */
+    public double falsePositiveRate() {
+        long numAbsent = numFilterNegatives + numFalsePositives;
+        return numAbsent == 0 ? 0.0 : (double) numFalsePositives / numAbsent;
+    }
+}
@@ -0,0 +1,122 @@
+package Utilities;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Variant of LongHashSet for use from several crawler threads. Slots are
+ * claimed with compare-and-set, so contains never blocks and adds never
+ * wait for one another. The table doubles once it is MAX_LOAD full, like
+ * LongHashSet's; adds hold the read side of a lock so that the copy, which
+ * holds the write side, sees every key, and wait only while it runs.
+ */
+public class ConcurrentLongHashSet implements FingerprintSet {
+    private static final double MAX_LOAD = 0.75;
+
+    private volatile AtomicLongArray table;
+    private AtomicInteger size;
+    private AtomicBoolean hasZero;
+    private ReentrantReadWriteLock resizeLock;
+
+    public ConcurrentLongHashSet(int expectedSize) {
+        table = new AtomicLongArray(LongHashSet.tableSizeFor(expectedSize));
+        size = new AtomicInteger();
+        hasZero = new AtomicBoolean();
+        resizeLock = new ReentrantReadWriteLock();
+    }
+
+    public boolean add(long key) {
+        if (key == 0) {
+            if (hasZero.compareAndSet(false, true)) {
+                size.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        AtomicLongArray current;
+        boolean added;
+        resizeLock.readLock().lock();
+        try {
+            current = table;
+            added = insert(current, key);
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+        if (added && size.incrementAndGet() > current.length() * MAX_LOAD) {
+            resize(current);
+        }
+        return added;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) {
+            return hasZero.get();
+        }
+        //an old table is still complete until the new one is published
+        AtomicLongArray current = table;
+        int mask = current.length() - 1;
+        int i = LongHashSet.slotOf(key, mask);
+        long slot;
+        while ((slot = current.get(i)) != 0) {
+            if (slot == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Puts key in the first free slot of its probe sequence; returns false
+     * if it was already there
+     */
+    private static boolean insert(AtomicLongArray table, long key) {
+        int mask = table.length() - 1;
+        int i = LongHashSet.slotOf(key, mask);
+        while (true) {
+            long slot = table.get(i);
+            if (slot == key) {
+                return false;
+            }
+            if (slot == 0) {
+                if (table.compareAndSet(i, 0, key)) {
+                    return true;
+                }
+                //lost the race for this slot; look at what was put there
+                continue;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Doubles the table, unless another thread already replaced full
+     */
+    private void resize(AtomicLongArray full) {
+        resizeLock.writeLock().lock();
+        try {
+            if (table != full) {
+                return;
+            }
+            if (full.length() >= (1 << 30)) {
+                throw new IllegalStateException("Too many keys: " + size.get());
+            }
+            AtomicLongArray grown = new AtomicLongArray(full.length() * 2);
+            for (int i = 0; i < full.length(); i ++) {
+                long key = full.get(i);
+                if (key != 0) {
+                    insert(grown, key);
+                }
+            }
+            table = grown;
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package Utilities;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Immutable, memory-mapped file of sorted 64-bit fingerprints.
+ *
+ * Keys are stored in blocks of BLOCK_SIZE: a sparse index holds the first
+ * key of each block, and within a block each key is front-coded as the
+ * varint delta from the previous key. Fingerprints are spread evenly over
+ * 64 bits, so the delta between N of them is about 2^64/N: some 7 bytes
+ * at a million keys, one byte less for every 128 times as many. A lookup binary-searches the index and decodes one block,
+ * reading straight from the mapping, so opening a run costs one mmap and
+ * no deserialization.
+ *
+ * Layout: int MAGIC, int VERSION, blocks..., then numBlocks x
+ * (long firstKey, long blockOffset), then trailer: long count,
+ * int numBlocks, long indexOffset, int MAGIC. Keys are in signed order;
+ * deltas are unsigned and may wrap.
+ */
+public class FingerprintRun {
+    private static final int MAGIC = 0x46505255;
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 128;
+    private static final int TRAILER_SIZE = 8 + 4 + 8 + 4;
+
+    private File file;
+    private MappedByteBuffer buf;
+    private long count;
+    private int numBlocks;
+    private int indexOffset;
+
+    private FingerprintRun(File file, MappedByteBuffer buf) throws IOException {
+        this.file = file;
+        this.buf = buf;
+        int trailer = buf.capacity() - TRAILER_SIZE;
+        if (trailer < 8 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+                || buf.getInt(trailer + 20) != MAGIC) {
+            throw new IOException("Not a fingerprint run: " + file);
+        }
+        count = buf.getLong(trailer);
+        numBlocks = buf.getInt(trailer + 8);
+        indexOffset = (int) buf.getLong(trailer + 12);
+    }
+
+    public static FingerprintRun open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Fingerprint run too large to map: " + file);
+            }
+            return new FingerprintRun(file,
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            //the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    public boolean contains(long key) {
+        //last block whose first key is <= key
+        int lo = 0;
+        int hi = numBlocks - 1;
+        int block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (firstKey(mid) <= key) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block == -1) {
+            return false;
+        }
+        long current = firstKey(block);
+        if (current == key) {
+            return true;
+        }
+        int pos = (int) buf.getLong(indexOffset + (block * 16) + 8);
+        int keysInBlock = (int) Math.min(BLOCK_SIZE, count - ((long) block * BLOCK_SIZE));
+        for (int i = 1; i < keysInBlock; i ++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get(pos ++);
+                delta |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            current += delta;
+            if (current == key) {
+                return true;
+            }
+            if (current > key) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private long firstKey(int block) {
+        return buf.getLong(indexOffset + (block * 16));
+    }
+
+    /**
+     * Iterates the keys in order
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public class Cursor {
+        private long index = 0;
+        private int pos = 8;
+        private long current;
+
+        public boolean hasNext() {
+            return index < count;
+        }
+
+        public long next() {
+            int inBlock = (int) (index % BLOCK_SIZE);
+            if (inBlock == 0) {
+                int block = (int) (index / BLOCK_SIZE);
+                current = firstKey(block);
+                pos = (int) buf.getLong(indexOffset + (block * 16) + 8);
+            } else {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buf.get(pos ++);
+                    delta |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                current += delta;
+            }
+            index ++;
+            return current;
+        }
+    }
+
+    /**
+     * Streams sorted, distinct keys into a new run file
+     */
+    public static class Writer {
+        private File file;
+        private File tmpFile;
+        private DataOutputStream out;
+        private long offset;
+        private long count;
+        private long prevKey;
+        private ByteArrayOutputStream indexBytes;
+        private DataOutputStream index;
+
+        public Writer(File file) throws IOException {
+            this.file = file;
+            tmpFile = new File(file.getPath() + ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            offset = 8;
+            count = 0;
+            indexBytes = new ByteArrayOutputStream();
+            index = new DataOutputStream(indexBytes);
+        }
+
+        public void add(long key) throws IOException {
+            if (count > 0 && key <= prevKey) {
+                throw new IllegalArgumentException("Keys must be added in increasing order");
+            }
+            if (count % BLOCK_SIZE == 0) {
+                index.writeLong(key);
+                index.writeLong(offset);
+            } else {
+                long delta = key - prevKey;
+                while ((delta & ~0x7fL) != 0) {
+                    out.writeByte((int) ((delta & 0x7f) | 0x80));
+                    delta >>>= 7;
+                    offset ++;
+                }
+                out.writeByte((int) delta);
+                offset ++;
+            }
+            prevKey = key;
+            count ++;
+        }
+
+        /**
+         * Finishes the file, renames it into place and maps it
+         */
+        public FingerprintRun finish() throws IOException {
+            int numBlocks = (int) ((count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            long indexOffset = offset;
+            indexBytes.writeTo(out);
+            out.writeLong(count);
+            out.writeInt(numBlocks);
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.close();
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tmpFile + " to " + file);
+            }
+            return open(file);
+        }
+    }
+}
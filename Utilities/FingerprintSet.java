@@ -0,0 +1,16 @@
+package Utilities;
+
+/**
+ * Set of 64-bit URL fingerprints
+ */
+public interface FingerprintSet {
+
+    /**
+     * Returns true if fingerprint was not already in the set
+     */
+    boolean add(long fingerprint);
+
+    boolean contains(long fingerprint);
+
+    int size();
+}
@@ -0,0 +1,143 @@
+package Utilities;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive longs with linear probing.
+ * Keys are stored directly in a long[] (0 marks an empty slot; the key 0
+ * itself is tracked separately), so there is no per-entry object and no
+ * allocation on lookup. With the table kept at most 3/4 full this costs
+ * between roughly 11 and 21 bytes per key, or under 16 when presized
+ * with the expected number of keys.
+ *
+ * Keys are expected to be well-mixed hashes already, e.g. URL fingerprints.
+ */
+public class LongHashSet implements FingerprintSet {
+    private static final double MAX_LOAD = 0.75;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        table = new long[tableSizeFor(expectedSize)];
+        mask = table.length - 1;
+        size = 0;
+        hasZero = false;
+    }
+
+    /**
+     * Smallest power of two that holds expectedSize keys under MAX_LOAD
+     */
+    static int tableSizeFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 1) / MAX_LOAD);
+        if (needed > (1 << 30)) {
+            throw new IllegalArgumentException("Too many keys: " + expectedSize);
+        }
+        return Math.max(Integer.highestOneBit((int) needed - 1) << 1, 2);
+    }
+
+    static int slotOf(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    public boolean add(long key) {
+        if (key == 0) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            size ++;
+            return true;
+        }
+        int i = slotOf(key, mask);
+        while (table[i] != 0) {
+            if (table[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = key;
+        size ++;
+        if (size > table.length * MAX_LOAD) {
+            resize();
+        }
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) {
+            return hasZero;
+        }
+        int i = slotOf(key, mask);
+        while (table[i] != 0) {
+            if (table[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the keys in ascending (signed) order
+     */
+    public long[] toSortedArray() {
+        long[] keys = new long[size];
+        int n = 0;
+        if (hasZero) {
+            keys[n ++] = 0;
+        }
+        for (long key : table) {
+            if (key != 0) {
+                keys[n ++] = key;
+            }
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Writes every key as 8 bytes, in no particular order; returns the number of bytes written
+     */
+    public long writeTo(DataOutput out) throws IOException {
+        if (hasZero) {
+            out.writeLong(0);
+        }
+        for (long key : table) {
+            if (key != 0) {
+                out.writeLong(key);
+            }
+        }
+        return 8L * size;
+    }
+
+    private void resize() {
+        long[] oldTable = table;
+        if (oldTable.length >= (1 << 30)) {
+            throw new IllegalStateException("Too many keys: " + size);
+        }
+        table = new long[oldTable.length * 2];
+        mask = table.length - 1;
+        for (long key : oldTable) {
+            if (key != 0) {
+                int i = slotOf(key, mask);
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = key;
+            }
+        }
+    }
+}
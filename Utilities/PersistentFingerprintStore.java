@@ -0,0 +1,196 @@
+package Utilities;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fingerprint set that survives across crawls, for skipping URLs that an
+ * earlier run already fetched.
+ *
+ * History lives in a directory of FingerprintRun files, which are
+ * memory-mapped on open rather than loaded. New keys go to an in-memory
+ * delta; once the delta reaches flushThreshold keys it is handed to a
+ * background thread that writes it out as a new run, and when more than
+ * MAX_RUNS runs exist they are merged into one. Lookups check the delta,
+ * any delta being flushed, then each run.
+ *
+ * Intended for one writer thread; lookups may come from any thread.
+ */
+public class PersistentFingerprintStore implements FingerprintSet {
+    private static final int MAX_RUNS = 8;
+
+    private File dir;
+    private int flushThreshold;
+    private LongHashSet delta;
+    //delta currently being written out; cleared after runs includes it
+    private volatile LongHashSet flushing;
+    private volatile List<FingerprintRun> runs;
+    private long nextRunNum;
+    private ExecutorService writer;
+    private Future<?> lastFlush;
+
+    public PersistentFingerprintStore(File dir, int flushThreshold) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create history directory " + dir);
+        }
+        this.dir = dir;
+        this.flushThreshold = flushThreshold;
+        delta = new LongHashSet();
+        List<FingerprintRun> openRuns = new ArrayList<FingerprintRun>();
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        nextRunNum = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith("run-") && name.endsWith(".fp")) {
+                openRuns.add(FingerprintRun.open(file));
+                long runNum = Long.parseLong(name.substring(4, name.length() - 3));
+                nextRunNum = Math.max(nextRunNum, runNum + 1);
+            }
+        }
+        runs = Collections.unmodifiableList(openRuns);
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "seen-store-merge");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public boolean add(long key) {
+        if (contains(key)) {
+            return false;
+        }
+        delta.add(key);
+        if (delta.size() >= flushThreshold && (lastFlush == null || lastFlush.isDone())) {
+            flushInBackground();
+        }
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (delta.contains(key)) {
+            return true;
+        }
+        //read flushing before runs: the flush publishes the new run first
+        LongHashSet beingFlushed = flushing;
+        if (beingFlushed != null && beingFlushed.contains(key)) {
+            return true;
+        }
+        for (FingerprintRun run : runs) {
+            if (run.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of keys, counting a key once per run it appears in
+     */
+    public int size() {
+        long total = delta.size();
+        LongHashSet beingFlushed = flushing;
+        if (beingFlushed != null) {
+            total += beingFlushed.size();
+        }
+        for (FingerprintRun run : runs) {
+            total += run.size();
+        }
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes out the delta and waits for pending background work
+     */
+    public void close() throws IOException {
+        try {
+            if (lastFlush != null) {
+                lastFlush.get();
+            }
+            if (delta.size() > 0) {
+                flushInBackground();
+                lastFlush.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not write seen history", e.getCause());
+        }
+        writer.shutdown();
+    }
+
+    private void flushInBackground() {
+        final LongHashSet toFlush = delta;
+        flushing = toFlush;
+        delta = new LongHashSet();
+        lastFlush = writer.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                List<FingerprintRun> newRuns = new ArrayList<FingerprintRun>(runs);
+                newRuns.add(writeRun(toFlush.toSortedArray()));
+                runs = Collections.unmodifiableList(newRuns);
+                flushing = null;
+                if (newRuns.size() > MAX_RUNS) {
+                    mergeRuns(newRuns);
+                }
+                return null;
+            }
+        });
+    }
+
+    private FingerprintRun writeRun(long[] sortedKeys) throws IOException {
+        FingerprintRun.Writer runWriter = new FingerprintRun.Writer(nextRunFile());
+        for (long key : sortedKeys) {
+            runWriter.add(key);
+        }
+        return runWriter.finish();
+    }
+
+    /**
+     * K-way merge of all runs into one, dropping keys present in several
+     */
+    private void mergeRuns(List<FingerprintRun> toMerge) throws IOException {
+        FingerprintRun.Writer runWriter = new FingerprintRun.Writer(nextRunFile());
+        List<FingerprintRun.Cursor> cursors = new ArrayList<FingerprintRun.Cursor>();
+        final long[] heads = new long[toMerge.size()];
+        PriorityQueue<Integer> byHead = new PriorityQueue<Integer>(toMerge.size(), new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(heads[a], heads[b]);
+            }
+        });
+        for (int i = 0; i < toMerge.size(); i ++) {
+            FingerprintRun.Cursor cursor = toMerge.get(i).cursor();
+            cursors.add(cursor);
+            if (cursor.hasNext()) {
+                heads[i] = cursor.next();
+                byHead.add(i);
+            }
+        }
+        boolean first = true;
+        long last = 0;
+        while (!byHead.isEmpty()) {
+            int i = byHead.poll();
+            if (first || heads[i] != last) {
+                runWriter.add(heads[i]);
+                last = heads[i];
+                first = false;
+            }
+            if (cursors.get(i).hasNext()) {
+                heads[i] = cursors.get(i).next();
+                byHead.add(i);
+            }
+        }
+        FingerprintRun merged = runWriter.finish();
+        runs = Collections.unmodifiableList(Collections.singletonList(merged));
+        for (FingerprintRun run : toMerge) {
+            //still mapped until collected, which is fine once unlinked
+            run.getFile().delete();
+        }
+    }
+
+    private File nextRunFile() {
+        return new File(dir, String.format("run-%012d.fp", nextRunNum ++));
+    }
+}
@@ -0,0 +1,71 @@
+package Utilities;
+
+/**
+ * 64-bit SimHash of a page's visible text. Each run of SHINGLE_SIZE
+ * consecutive words is hashed, and bit i of the result is set if more
+ * shingles have bit i set than clear. Pages with mostly the same text
+ * get fingerprints that differ in only a few bits.
+ *
+ * A page with fewer than SHINGLE_SIZE words, such as the empty contents
+ * of a failed fetch, has no shingles and so no fingerprint.
+ */
+public class SimHash {
+    private static final int SHINGLE_SIZE = 3;
+
+    /**
+     * The fingerprint of pageContent, or null if it is too short to have one
+     */
+    public static Long of(String pageContent) {
+        String text = pageContent.replaceAll("<[^>]*>", " ").toLowerCase();
+        String[] words = text.split("[^a-z0-9]+");
+        int[] weights = new int[64];
+        long[] window = new long[SHINGLE_SIZE];
+        int numWords = 0;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            window[numWords % SHINGLE_SIZE] = hash(word);
+            numWords ++;
+            if (numWords < SHINGLE_SIZE) {
+                continue;
+            }
+            long shingle = 0;
+            for (int i = SHINGLE_SIZE; i > 0; i --) {
+                shingle = (shingle * 0x100000001b3L) ^ window[(numWords - i) % SHINGLE_SIZE];
+            }
+            shingle = mix(shingle);
+            for (int bit = 0; bit < 64; bit ++) {
+                weights[bit] += ((shingle >>> bit) & 1) != 0 ? 1 : -1;
+            }
+        }
+        if (numWords < SHINGLE_SIZE) {
+            return null;
+        }
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit ++) {
+            if (weights[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+        return simHash;
+    }
+
+    private static long hash(String word) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); i ++) {
+            h ^= word.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
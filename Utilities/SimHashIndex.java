@@ -0,0 +1,83 @@
+package Utilities;
+
+import java.util.*;
+
+/**
+ * Finds near-duplicates among the most recent SimHash fingerprints.
+ *
+ * Each fingerprint is split into NUM_BANDS bands of 16 bits and filed
+ * under every band value. Two fingerprints within maxDistance bits of each
+ * other (maxDistance < NUM_BANDS) must agree exactly on at least one band,
+ * so only fingerprints sharing a band are compared. The index keeps the
+ * last capacity fingerprints and forgets older ones.
+ */
+public class SimHashIndex {
+    private static final int NUM_BANDS = 4;
+
+    private int maxDistance;
+    private long[] recent;
+    private int numAdded;
+    private Map<Integer, List<Long>> bands;
+
+    public SimHashIndex(int capacity, int maxDistance) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (maxDistance >= NUM_BANDS) {
+            throw new IllegalArgumentException("maxDistance must be below " + NUM_BANDS);
+        }
+        this.maxDistance = maxDistance;
+        recent = new long[capacity];
+        numAdded = 0;
+        bands = new HashMap<Integer, List<Long>>();
+    }
+
+    /**
+     * Returns true if a recent fingerprint is within maxDistance bits of
+     * simHash; otherwise remembers simHash and returns false
+     */
+    public boolean checkAndAdd(long simHash) {
+        for (int band = 0; band < NUM_BANDS; band ++) {
+            List<Long> candidates = bands.get(bandKey(simHash, band));
+            if (candidates == null) {
+                continue;
+            }
+            for (long candidate : candidates) {
+                if (Long.bitCount(candidate ^ simHash) <= maxDistance) {
+                    return true;
+                }
+            }
+        }
+        int slot = numAdded % recent.length;
+        if (numAdded >= recent.length) {
+            forget(recent[slot]);
+        }
+        recent[slot] = simHash;
+        numAdded ++;
+        for (int band = 0; band < NUM_BANDS; band ++) {
+            Integer key = bandKey(simHash, band);
+            List<Long> candidates = bands.get(key);
+            if (candidates == null) {
+                candidates = new ArrayList<Long>(2);
+                bands.put(key, candidates);
+            }
+            candidates.add(simHash);
+        }
+        return false;
+    }
+
+    private void forget(long simHash) {
+        for (int band = 0; band < NUM_BANDS; band ++) {
+            Integer key = bandKey(simHash, band);
+            List<Long> candidates = bands.get(key);
+            candidates.remove(Long.valueOf(simHash));
+            if (candidates.isEmpty()) {
+                bands.remove(key);
+            }
+        }
+    }
+
+    private static Integer bandKey(long simHash, int band) {
+        return (band << 16) | (int) ((simHash >>> (band * 16)) & 0xffff);
+    }
+}
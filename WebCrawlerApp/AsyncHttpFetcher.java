@@ -0,0 +1,164 @@
+package WebCrawlerApp;
+
+import java.io.IOException;
+import java.net.*;
+import java.net.http.*;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Non-blocking fetcher on java.net.http.HttpClient. One client is shared
+ * by all requests, so connections are pooled and reused across pages of
+ * a host, and HTTP/2 is negotiated where the server supports it, letting
+ * concurrent requests to a host share one connection. fetch returns as
+ * soon as the request is sent; the future completes on the client's
+ * threads, with no thread held per request in flight. HttpClient does not
+ * decompress, so BodyReader decodes gzip and deflate bodies as they stream in.
+ * The request timeout bounds the wait for response headers; a request over
+ * its deadline after that has its body subscription cancelled.
+ */
+public class AsyncHttpFetcher implements PageFetcher {
+    private HttpClient client;
+    private BodyReader bodyReader;
+    private FetchDeadlines deadlines;
+
+    public AsyncHttpFetcher(BodyReader bodyReader, FetchDeadlines deadlines) {
+        this.bodyReader = bodyReader;
+        this.deadlines = deadlines;
+        client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(deadlines.getConnectTimeoutMillis()))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            //honour the http.proxyHost settings, as URLConnection does
+            .proxy(ProxySelector.getDefault())
+            .build();
+    }
+
+    public CompletableFuture<FetchedPage> fetch(final URL url, Map<String, String> requestHeaders,
+            final ContentTypePolicy policy) {
+        HttpRequest request;
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI()).GET()
+                .timeout(Duration.ofMillis(Math.min(deadlines.getReadTimeoutMillis(), deadlines.getTotalMillis())))
+                .header("Accept-Encoding", ContentDecoder.ACCEPTED_ENCODINGS);
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                builder.setHeader(header.getKey(), header.getValue());
+            }
+            request = builder.build();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            CompletableFuture<FetchedPage> failed = new CompletableFuture<FetchedPage>();
+            failed.completeExceptionally(new IOException("Cannot request " + url, e));
+            return failed;
+        }
+        final FetchDeadlines.Deadline deadline = deadlines.start(url.toString());
+        final CompletableFuture<FetchedPage> result = new CompletableFuture<FetchedPage>();
+        deadline.setAbort(new Runnable() {
+            public void run() {
+                //no body yet; the request timeout will end the exchange itself
+                result.completeExceptionally(deadline.failure());
+            }
+        });
+        HttpResponse.BodyHandler<BodyReader.Body> bodyHandler = new HttpResponse.BodyHandler<BodyReader.Body>() {
+            public HttpResponse.BodySubscriber<BodyReader.Body> apply(HttpResponse.ResponseInfo info) {
+                deadline.startBody();
+                return new DeadlineSubscriber(bodyReader.subscriber(
+                    info.headers().firstValueAsLong("Content-Length").orElse(-1),
+                    info.headers().firstValue("Content-Encoding").orElse(null),
+                    info.headers().firstValue("Content-Type").orElse(null), policy), deadline);
+            }
+        };
+        client.sendAsync(request, bodyHandler)
+            .whenComplete(new BiConsumer<HttpResponse<BodyReader.Body>, Throwable>() {
+                public void accept(HttpResponse<BodyReader.Body> response, Throwable failure) {
+                    deadline.end();
+                    if (deadline.isExpired()) {
+                        result.completeExceptionally(deadline.failure());
+                    } else if (failure != null) {
+                        result.completeExceptionally(
+                            (failure instanceof CompletionException && failure.getCause() != null)
+                                ? failure.getCause() : failure);
+                    } else {
+                        result.complete(toFetchedPage(url, response));
+                    }
+                }
+            });
+        return result;
+    }
+
+    private static FetchedPage toFetchedPage(URL url, HttpResponse<BodyReader.Body> response) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+        }
+        return new FetchedPage(url, response.statusCode(), headers, response.body());
+    }
+
+    public boolean isAsync() {
+        return true;
+    }
+
+    public void close() {
+        //HttpClient has no close before Java 21; its threads are daemons
+    }
+
+    /**
+     * Passes the body through to a BodyReader subscriber, counting bytes
+     * for the deadline, and cancels the download when the deadline passes
+     */
+    private static class DeadlineSubscriber implements HttpResponse.BodySubscriber<BodyReader.Body> {
+        private HttpResponse.BodySubscriber<BodyReader.Body> delegate;
+        private FetchDeadlines.Deadline deadline;
+        private CompletableFuture<BodyReader.Body> body;
+
+        DeadlineSubscriber(HttpResponse.BodySubscriber<BodyReader.Body> delegate, FetchDeadlines.Deadline deadline) {
+            this.delegate = delegate;
+            this.deadline = deadline;
+            body = new CompletableFuture<BodyReader.Body>();
+            delegate.getBody().whenComplete(new BiConsumer<BodyReader.Body, Throwable>() {
+                public void accept(BodyReader.Body delegateBody, Throwable failure) {
+                    if (failure != null) {
+                        body.completeExceptionally(failure);
+                    } else {
+                        body.complete(delegateBody);
+                    }
+                }
+            });
+        }
+
+        public CompletionStage<BodyReader.Body> getBody() {
+            return body;
+        }
+
+        public void onSubscribe(final Flow.Subscription subscription) {
+            delegate.onSubscribe(subscription);
+            deadline.setAbort(new Runnable() {
+                public void run() {
+                    subscription.cancel();
+                    body.completeExceptionally(deadline.failure());
+                }
+            });
+        }
+
+        public void onNext(List<ByteBuffer> items) {
+            long numBytes = 0;
+            for (ByteBuffer item : items) {
+                numBytes += item.remaining();
+            }
+            deadline.addBytes(numBytes);
+            delegate.onNext(items);
+        }
+
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+        }
+
+        public void onComplete() {
+            delegate.onComplete();
+        }
+    }
+}
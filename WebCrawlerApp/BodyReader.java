@@ -0,0 +1,414 @@
+package WebCrawlerApp;
+
+import java.io.*;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads response bodies for both fetchers into a single growable byte
+ * array, presized from Content-Length when the server sends it, so a page
+ * costs one buffer (plus a doubling now and then) instead of a String per
+ * chunk. A gzip or deflate Content-Encoding is undone as the bytes arrive,
+ * by a ContentDecoder writing into the same buffer. Bodies are cut off
+ * after maxBytes of decoded content, which also stops a compression bomb
+ * from inflating further, and decoded to text once, in FetchedPage, using
+ * the charset the response declares. Given a ContentTypePolicy, a body
+ * that is not HTML is rejected from its Content-Type, or from its first
+ * bytes, and reading stops there. A page body (one read with a policy)
+ * is hashed as it arrives, and with scanLinks also fed to a LinkScanner.
+ */
+public class BodyReader {
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+    private int maxBytes;
+    private boolean scanLinks;
+
+    public BodyReader(int maxBytes, boolean scanLinks) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Max body size must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.scanLinks = scanLinks;
+    }
+
+    /**
+     * Reads in to the end, or to maxBytes; contentLength is -1 if unknown,
+     * contentEncoding null if the body is not encoded, and policy null to
+     * read any type of body
+     */
+    public Body read(InputStream in, long contentLength, String contentEncoding,
+            String contentType, ContentTypePolicy policy) throws IOException {
+        Buffer buffer = new Buffer(contentLength, ContentDecoder.forEncoding(contentEncoding), contentType, policy);
+        try {
+            byte[] chunk = new byte[8192];
+            int numBytesRead;
+            while (!buffer.isFull() && (numBytesRead = in.read(chunk)) != -1) {
+                buffer.append(chunk, 0, numBytesRead);
+            }
+            return buffer.finish();
+        } finally {
+            buffer.end();
+        }
+    }
+
+    /**
+     * HttpClient body subscriber that accumulates the same way, cancelling
+     * the download once maxBytes have arrived
+     */
+    public HttpResponse.BodySubscriber<Body> subscriber(long contentLength, String contentEncoding,
+            String contentType, ContentTypePolicy policy) {
+        Buffer buffer;
+        try {
+            buffer = new Buffer(contentLength, ContentDecoder.forEncoding(contentEncoding), contentType, policy);
+        } catch (IOException e) {
+            //fail the request rather than hand back bytes that cannot be decoded
+            return new BufferSubscriber(e);
+        }
+        return new BufferSubscriber(buffer);
+    }
+
+    /**
+     * Body bytes and whether they were cut off at the size limit
+     */
+    public static class Body {
+        public static final Body EMPTY = new Body(new byte[0], false, false, 0, null, null);
+
+        private byte[] bytes;
+        private boolean truncated;
+        private boolean rejected;
+        private long wireLength;
+        private List<LinkScanner.Link> links;
+        private byte[] contentHash;
+
+        Body(byte[] bytes, boolean truncated, boolean rejected, long wireLength, List<LinkScanner.Link> links,
+                byte[] contentHash) {
+            this.bytes = bytes;
+            this.truncated = truncated;
+            this.rejected = rejected;
+            this.wireLength = wireLength;
+            this.links = links;
+            this.contentHash = contentHash;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * True if the body was not read, or read only far enough to sniff
+         * it, because it is not HTML; bytes is then empty
+         */
+        public boolean isRejected() {
+            return rejected;
+        }
+
+        /**
+         * Bytes received before any Content-Encoding was undone
+         */
+        public long getWireLength() {
+            return wireLength;
+        }
+
+        /**
+         * Links found by a LinkScanner as the body arrived, or null if it
+         * was not scanned
+         */
+        public List<LinkScanner.Link> getLinks() {
+            return links;
+        }
+
+        /**
+         * SHA-256 of bytes, taken as they arrived, or null if the body was
+         * not hashed
+         */
+        public byte[] getContentHash() {
+            return contentHash;
+        }
+    }
+
+    /**
+     * The digest page bodies are hashed with
+     */
+    public static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //every JRE is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes body with the charset from the Content-Type header, falling
+     * back to a meta charset declaration near the top of the page, then UTF-8
+     */
+    public static String decode(byte[] body, String contentType) {
+        Charset charset = charsetFromContentType(contentType);
+        if (charset == null) {
+            charset = charsetFromMeta(body);
+        }
+        return new String(body, charset == null ? DEFAULT_CHARSET : charset);
+    }
+
+    static Charset charsetFromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                return charsetForName(param.substring(8));
+            }
+        }
+        return null;
+    }
+
+    private static Charset charsetFromMeta(byte[] body) {
+        //meta tags belong in the head; ASCII-compatible charsets only, which is all of them in practice
+        String head = new String(body, 0, Math.min(body.length, 1024), StandardCharsets.ISO_8859_1).toLowerCase();
+        int index = head.indexOf("charset=");
+        if (index == -1) {
+            return null;
+        }
+        int start = index + 8;
+        if (start < head.length() && (head.charAt(start) == '"' || head.charAt(start) == '\'')) {
+            start ++;
+        }
+        int end = start;
+        while (end < head.length() && (Character.isLetterOrDigit(head.charAt(end))
+                || "-_:.".indexOf(head.charAt(end)) != -1)) {
+            end ++;
+        }
+        return charsetForName(head.substring(start, end));
+    }
+
+    private static Charset charsetForName(String name) {
+        name = name.trim();
+        if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            //unknown or malformed name
+            return null;
+        }
+    }
+
+    private class Buffer implements ContentDecoder.Sink {
+        private byte[] bytes;
+        private int count;
+        private boolean truncated;
+        //null if the body is not encoded
+        private ContentDecoder decoder;
+        private long wireLength;
+        //null to accept any body
+        private ContentTypePolicy policy;
+        private boolean typeChecked;
+        private boolean rejected;
+        //null unless scanning for links
+        private LinkScanner scanner;
+        //null unless reading a page
+        private MessageDigest digest;
+
+        Buffer(long contentLength, ContentDecoder decoder, String contentType, ContentTypePolicy policy) {
+            this.policy = policy;
+            if (policy != null) {
+                digest = newContentDigest();
+            }
+            if (scanLinks && policy != null) {
+                //a meta charset comes too late to scan with; links are ASCII in practice anyway
+                Charset charset = charsetFromContentType(contentType);
+                scanner = new LinkScanner(charset == null ? DEFAULT_CHARSET : charset);
+            }
+            typeChecked = (policy == null || !policy.needsSniffing(contentType));
+            rejected = (policy != null && typeChecked && !policy.isHtmlType(contentType));
+            int capacity = INITIAL_CAPACITY;
+            if (rejected) {
+                capacity = 0;
+            } else if (contentLength >= 0 && decoder == null && typeChecked) {
+                //exact size, so a complete body needs no copy at the end
+                capacity = (int) Math.min(contentLength, maxBytes);
+            }
+            bytes = new byte[Math.min(capacity, maxBytes)];
+            count = 0;
+            truncated = false;
+            this.decoder = decoder;
+            wireLength = 0;
+        }
+
+        /**
+         * Appends bytes as received, decoding them first if encoded
+         */
+        void append(byte[] src, int offset, int length) throws IOException {
+            wireLength += length;
+            if (decoder != null) {
+                decoder.decode(src, offset, length, this);
+            } else {
+                write(src, offset, length);
+            }
+        }
+
+        void append(ByteBuffer src) throws IOException {
+            if (decoder != null || !src.hasArray()) {
+                byte[] copy = new byte[src.remaining()];
+                src.get(copy);
+                append(copy, 0, copy.length);
+                return;
+            }
+            append(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+        }
+
+        public void write(byte[] src, int offset, int length) {
+            int toCopy = reserve(length);
+            System.arraycopy(src, offset, bytes, count, toCopy);
+            count += toCopy;
+            if (digest != null) {
+                digest.update(src, offset, toCopy);
+            }
+            if (scanner != null) {
+                scanner.scan(src, offset, toCopy);
+            }
+            if (!typeChecked && count >= ContentTypePolicy.SNIFF_LENGTH) {
+                checkType();
+            }
+        }
+
+        public boolean isFull() {
+            return truncated || rejected;
+        }
+
+        private void checkType() {
+            typeChecked = true;
+            rejected = !policy.looksLikeHtml(bytes, Math.min(count, ContentTypePolicy.SNIFF_LENGTH));
+        }
+
+        /**
+         * Makes room for up to length more bytes and returns how many fit
+         * under maxBytes
+         */
+        private int reserve(int length) {
+            if (length > maxBytes - count) {
+                length = maxBytes - count;
+                truncated = true;
+            }
+            if (count + length > bytes.length) {
+                int capacity = (int) Math.min(Math.max((long) bytes.length * 2, (long) count + length), maxBytes);
+                bytes = Arrays.copyOf(bytes, capacity);
+            }
+            return length;
+        }
+
+        /**
+         * The body, once all of it has been appended or the buffer is full
+         */
+        Body finish() throws IOException {
+            if (decoder != null) {
+                decoder.finish(this);
+            }
+            if (!typeChecked) {
+                checkType();
+            }
+            if (rejected) {
+                return new Body(new byte[0], false, true, wireLength, null, null);
+            }
+            return new Body(count == bytes.length ? bytes : Arrays.copyOf(bytes, count), truncated, false, wireLength,
+                scanner == null ? null : scanner.finish(), digest == null ? null : digest.digest());
+        }
+
+        void end() {
+            if (decoder != null) {
+                decoder.end();
+            }
+        }
+    }
+
+    private static class BufferSubscriber implements HttpResponse.BodySubscriber<Body> {
+        private Buffer buffer;
+        private CompletableFuture<Body> result;
+        private Flow.Subscription subscription;
+
+        BufferSubscriber(Buffer buffer) {
+            this.buffer = buffer;
+            result = new CompletableFuture<Body>();
+        }
+
+        /**
+         * Subscriber that fails the response without reading its body
+         */
+        BufferSubscriber(IOException failure) {
+            this((Buffer) null);
+            result.completeExceptionally(failure);
+        }
+
+        public CompletionStage<Body> getBody() {
+            return result;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (result.isDone()) {
+                subscription.cancel();
+            } else if (buffer.isFull()) {
+                //rejected on its Content-Type: do not download the body at all
+                subscription.cancel();
+                complete();
+            } else {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        public void onNext(List<ByteBuffer> items) {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                for (ByteBuffer item : items) {
+                    buffer.append(item);
+                }
+                if (buffer.isFull()) {
+                    //stop the download; the rest of the body is not wanted
+                    subscription.cancel();
+                    complete();
+                }
+            } catch (IOException e) {
+                subscription.cancel();
+                buffer.end();
+                result.completeExceptionally(e);
+            }
+        }
+
+        public void onError(Throwable throwable) {
+            if (buffer != null) {
+                buffer.end();
+            }
+            result.completeExceptionally(throwable);
+        }
+
+        public void onComplete() {
+            if (!result.isDone()) {
+                complete();
+            }
+        }
+
+        private void complete() {
+            try {
+                result.complete(buffer.finish());
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            } finally {
+                buffer.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package WebCrawlerApp;
+
+import java.util.*;
+
+/**
+ * Frontier indexed directly by integer score: bucket i holds, in FIFO
+ * order, the URLs whose score is i. Scores from WebCrawler.score are
+ * small non-negative ints, so push, poll and reprioritize are O(1)
+ * (amortized) with no object comparisons.
+ *
+ * A reprioritized entry gets a new slot in its new bucket; the slot left
+ * behind carries an older generation and is discarded in O(1) when it
+ * reaches the head of its bucket. Once stale slots outnumber live ones
+ * (STALE_RATIO), the buckets are compacted, so they stay proportional to
+ * the number of queued URLs.
+ */
+public class BucketURLQueue implements URLFrontier {
+    private static final double STALE_RATIO = 1.0;
+    private static final int MIN_COMPACT_SLOTS = 1024;
+
+    private List<ArrayDeque<FrontierSlot>> buckets;
+    private Map<CrawlURL, URLScore> index;
+    //highest bucket that may still hold a live entry
+    private int topBucket;
+    //live plus stale slots across all buckets
+    private int numSlots;
+
+    public BucketURLQueue() {
+        buckets = new ArrayList<ArrayDeque<FrontierSlot>>();
+        index = new HashMap<CrawlURL, URLScore>();
+        topBucket = -1;
+        numSlots = 0;
+    }
+
+    public URLScore get(CrawlURL url) {
+        return index.get(url);
+    }
+
+    public void add(URLScore urlScore) {
+        CrawlURL key = urlScore.getCrawlURL();
+        if (index.containsKey(key)) {
+            throw new IllegalArgumentException("Already queued: " + key);
+        }
+        index.put(key, urlScore);
+        pushToBucket(urlScore);
+    }
+
+    public void increaseScore(URLScore urlScore, int delta) {
+        if (index.get(urlScore.getCrawlURL()) != urlScore) {
+            throw new IllegalArgumentException("Not queued: " + urlScore.getURLAsString());
+        }
+        if (delta == 0) {
+            return;
+        }
+        urlScore.updateScore(urlScore.getScore() + delta);
+        pushToBucket(urlScore);
+        if (numSlots - index.size() > STALE_RATIO * Math.max(index.size(), MIN_COMPACT_SLOTS)) {
+            compact();
+        }
+    }
+
+    public URLScore poll() {
+        while (topBucket >= 0) {
+            ArrayDeque<FrontierSlot> bucket = buckets.get(topBucket);
+            FrontierSlot head = (bucket == null) ? null : bucket.pollFirst();
+            if (head == null) {
+                topBucket --;
+                continue;
+            }
+            numSlots --;
+            if (isLive(head)) {
+                index.remove(head.entry.getCrawlURL());
+                return head.entry;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public List<URLScore> pendingEntries() {
+        return new ArrayList<URLScore>(index.values());
+    }
+
+    private boolean isLive(FrontierSlot slot) {
+        return slot.isCurrent() && index.get(slot.entry.getCrawlURL()) == slot.entry;
+    }
+
+    private void pushToBucket(URLScore urlScore) {
+        int score = urlScore.getScore();
+        if (score < 0) {
+            throw new IllegalArgumentException("Negative score for "
+                + urlScore.getURLAsString() + ": " + score);
+        }
+        while (buckets.size() <= score) {
+            buckets.add(null);
+        }
+        ArrayDeque<FrontierSlot> bucket = buckets.get(score);
+        if (bucket == null) {
+            bucket = new ArrayDeque<FrontierSlot>();
+            buckets.set(score, bucket);
+        }
+        bucket.addLast(new FrontierSlot(urlScore));
+        numSlots ++;
+        if (score > topBucket) {
+            topBucket = score;
+        }
+    }
+
+    /**
+     * Drops every stale slot, keeping FIFO order within each bucket
+     */
+    private void compact() {
+        numSlots = 0;
+        for (int i = 0; i < buckets.size(); i ++) {
+            ArrayDeque<FrontierSlot> bucket = buckets.get(i);
+            if (bucket == null) {
+                continue;
+            }
+            ArrayDeque<FrontierSlot> liveSlots = new ArrayDeque<FrontierSlot>();
+            for (FrontierSlot slot : bucket) {
+                if (isLive(slot)) {
+                    liveSlots.addLast(slot);
+                }
+            }
+            buckets.set(i, liveSlots.isEmpty() ? null : liveSlots);
+            numSlots += liveSlots.size();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package WebCrawlerApp;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Incremental decoder for a gzip or deflate Content-Encoding. Encoded
+ * bytes are pushed in as they arrive, from a stream or from HttpClient
+ * buffers alike, and decoded bytes are written to a Sink, which can stop
+ * the decoding once it holds all it wants, so a small compressed body
+ * never inflates to more than the sink's limit.
+ */
+public class ContentDecoder {
+    /**
+     * Accept-Encoding sent by the fetchers
+     */
+    public static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    /**
+     * Receives decoded bytes
+     */
+    public interface Sink {
+        void write(byte[] src, int offset, int length);
+
+        /**
+         * True once no more bytes are wanted
+         */
+        boolean isFull();
+    }
+
+    //gzip header flags, RFC 1952
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private boolean gzip;
+    private Inflater inflater;
+    private CRC32 crc;
+    //gzip header or trailer bytes, or the first deflate bytes, seen so far;
+    //inflater is created once the header is complete
+    private ByteArrayOutputStream pending;
+    private boolean finished;
+    private byte[] chunk;
+
+    private ContentDecoder(boolean gzip) {
+        this.gzip = gzip;
+        crc = new CRC32();
+        pending = new ByteArrayOutputStream();
+        finished = false;
+        chunk = new byte[8192];
+    }
+
+    /**
+     * Decoder for a Content-Encoding header value, or null if the body is
+     * not encoded
+     */
+    public static ContentDecoder forEncoding(String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return null;
+        }
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (encoding.isEmpty() || encoding.equals("identity")) {
+            return null;
+        }
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new ContentDecoder(true);
+        }
+        if (encoding.equals("deflate")) {
+            return new ContentDecoder(false);
+        }
+        //only gzip and deflate are asked for
+        throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    public void decode(byte[] src, int offset, int length, Sink sink) throws IOException {
+        int end = offset + length;
+        if (!gzip && inflater == null) {
+            //the first two bytes tell zlib-wrapped from raw deflate
+            pending.write(src, offset, length);
+            if (pending.size() < 2) {
+                return;
+            }
+            src = pending.toByteArray();
+            offset = 0;
+            end = src.length;
+            pending.reset();
+            startDeflate(src);
+        }
+        while (offset < end && !finished && !sink.isFull()) {
+            if (inflater == null) {
+                pending.write(src[offset ++]);
+                startGzipIfHeaderComplete();
+            } else if (inflater.finished()) {
+                //gzip trailer
+                int toCopy = Math.min(end - offset, GZIP_TRAILER_LENGTH - pending.size());
+                pending.write(src, offset, toCopy);
+                offset += toCopy;
+                checkTrailerIfComplete();
+            } else {
+                inflater.setInput(src, offset, end - offset);
+                inflate(sink);
+                offset = end - inflater.getRemaining();
+            }
+        }
+    }
+
+    /**
+     * Called at the end of the encoded body; fails if it was cut short,
+     * unless the sink stopped the decoding first
+     */
+    public void finish(Sink sink) throws IOException {
+        try {
+            if (!finished && !sink.isFull() && (inflater != null || pending.size() > 0)) {
+                throw new EOFException("Unexpected end of " + (gzip ? "gzip" : "deflate") + " body");
+            }
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Releases the inflater's native memory
+     */
+    public void end() {
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    private void inflate(Sink sink) throws IOException {
+        try {
+            int numBytesInflated;
+            while (!sink.isFull() && (numBytesInflated = inflater.inflate(chunk)) > 0) {
+                sink.write(chunk, 0, numBytesInflated);
+                crc.update(chunk, 0, numBytesInflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt " + (gzip ? "gzip" : "deflate") + " body", e);
+        }
+        if (inflater.finished() && !gzip) {
+            finished = true;
+        }
+        if (inflater.needsDictionary()) {
+            throw new IOException("Deflate body needs a preset dictionary");
+        }
+    }
+
+    private void startGzipIfHeaderComplete() throws IOException {
+        if (gzipHeaderLength(pending.toByteArray()) != -1) {
+            inflater = new Inflater(true);
+            pending.reset();
+        }
+    }
+
+    private void startDeflate(byte[] firstBytes) {
+        //"deflate" should be zlib-wrapped, but some servers send raw deflate
+        int cmf = firstBytes[0] & 0xff;
+        boolean zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | (firstBytes[1] & 0xff)) % 31 == 0;
+        inflater = new Inflater(!zlib);
+    }
+
+    /**
+     * Length of the gzip header at the start of bytes, or -1 if it is not
+     * all there yet
+     */
+    private static int gzipHeaderLength(byte[] bytes) throws IOException {
+        if (bytes.length < 10) {
+            return -1;
+        }
+        if ((bytes[0] & 0xff) != 0x1f || (bytes[1] & 0xff) != 0x8b || bytes[2] != 8) {
+            throw new IOException("Not a gzip body");
+        }
+        int flags = bytes[3] & 0xff;
+        int length = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (bytes.length < length + 2) {
+                return -1;
+            }
+            length += 2 + ((bytes[length] & 0xff) | ((bytes[length + 1] & 0xff) << 8));
+        }
+        for (int field : new int[] {FNAME, FCOMMENT}) {
+            if ((flags & field) != 0) {
+                //zero-terminated
+                while (length < bytes.length && bytes[length] != 0) {
+                    length ++;
+                }
+                if (length == bytes.length) {
+                    return -1;
+                }
+                length ++;
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            length += 2;
+        }
+        return (bytes.length < length) ? -1 : length;
+    }
+
+    private void checkTrailerIfComplete() throws IOException {
+        if (pending.size() < GZIP_TRAILER_LENGTH) {
+            return;
+        }
+        byte[] trailer = pending.toByteArray();
+        long expectedCrc = readIntLE(trailer, 0);
+        long expectedSize = readIntLE(trailer, 4);
+        if (expectedCrc != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new IOException("Corrupt gzip body: checksum mismatch");
+        }
+        //anything after the first gzip member is ignored
+        finished = true;
+    }
+
+    private static long readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xffL) | ((bytes[offset + 1] & 0xffL) << 8)
+            | ((bytes[offset + 2] & 0xffL) << 16) | ((bytes[offset + 3] & 0xffL) << 24);
+    }
+}
@@ -0,0 +1,130 @@
+package WebCrawlerApp;
+
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Decides which responses and links are worth crawling: HTML only. A
+ * response is judged on its declared Content-Type where that is decisive,
+ * and otherwise on its first SNIFF_LENGTH bytes, so the fetchers can drop
+ * the connection before reading a PDF or image. Links are judged on the
+ * MIME type their file extension maps to.
+ */
+public class ContentTypePolicy {
+    public static final int SNIFF_LENGTH = 512;
+
+    private static final Set<String> HTML_TYPES = new HashSet<String>(Arrays.asList(
+        "text/html", "application/xhtml+xml"));
+    //types servers send for content they have not labelled properly
+    private static final Set<String> UNTYPED = new HashSet<String>(Arrays.asList(
+        "", "application/octet-stream", "application/unknown", "text/plain", "content/unknown"));
+    //pages generated on the server, which no file name map lists
+    private static final Set<String> DYNAMIC_PAGE_EXTENSIONS = new HashSet<String>(Arrays.asList(
+        "php", "asp", "aspx", "jsp", "jspx", "cfm", "cgi", "pl", "shtml", "xhtml"));
+    //lower-case starts of an HTML document, after any BOM, whitespace and comments
+    private static final String[] HTML_STARTS = {
+        "<!doctype html", "<html", "<head", "<body", "<title", "<meta", "<script",
+        "<link", "<style", "<table", "<div", "<p", "<a ", "<h1", "<br", "<font", "<b>", "<iframe"
+    };
+
+    private FileNameMap fileNameMap = URLConnection.getFileNameMap();
+
+    /**
+     * True if a response with this Content-Type is HTML without looking at
+     * the body
+     */
+    public boolean isHtmlType(String contentType) {
+        return HTML_TYPES.contains(mimeType(contentType));
+    }
+
+    /**
+     * True if the body of a response with this Content-Type needs sniffing
+     * to tell whether it is HTML; otherwise isHtmlType decides
+     */
+    public boolean needsSniffing(String contentType) {
+        return UNTYPED.contains(mimeType(contentType));
+    }
+
+    /**
+     * True if the first length bytes of a body, at most SNIFF_LENGTH,
+     * look like the start of an HTML document
+     */
+    public boolean looksLikeHtml(byte[] bytes, int length) {
+        int start = 0;
+        if (length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb && (bytes[2] & 0xff) == 0xbf) {
+            start = 3;
+        }
+        for (int i = start; i < length; i ++) {
+            //binary formats have NULs early on; text rarely does
+            if (bytes[i] == 0) {
+                return false;
+            }
+        }
+        String text = new String(bytes, start, length - start, StandardCharsets.ISO_8859_1).toLowerCase();
+        int index = 0;
+        while (true) {
+            while (index < text.length() && Character.isWhitespace(text.charAt(index))) {
+                index ++;
+            }
+            if (!text.startsWith("<!--", index)) {
+                break;
+            }
+            int commentEnd = text.indexOf("-->", index);
+            if (commentEnd == -1) {
+                //a comment longer than the sniffed bytes: only HTML starts like that
+                return true;
+            }
+            index = commentEnd + 3;
+        }
+        if (text.startsWith("<?xml", index)) {
+            return text.contains("<html");
+        }
+        for (String htmlStart : HTML_STARTS) {
+            if (text.startsWith(htmlStart, index)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if url is an http(s) or file link whose path names an HTML
+     * page, a page generated on the server, or a directory or extensionless
+     * path that is most likely one of those
+     */
+    public boolean isCrawlableLink(URL url) {
+        String protocol = url.getProtocol();
+        if (!protocol.equals("http") && !protocol.equals("https") && !protocol.equals("file")) {
+            //mailto:, javascript: and the like
+            return false;
+        }
+        String path = url.getPath();
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        int dotIndex = fileName.lastIndexOf('.');
+        if (dotIndex == -1) {
+            return true;
+        }
+        String extension = fileName.substring(dotIndex + 1).toLowerCase();
+        if (DYNAMIC_PAGE_EXTENSIONS.contains(extension)) {
+            return true;
+        }
+        String guessedType = fileNameMap.getContentTypeFor(fileName.toLowerCase());
+        return guessedType != null && isHtmlType(guessedType);
+    }
+
+    /**
+     * The type/subtype of a Content-Type header, lower-cased and without
+     * parameters; "" if there is none
+     */
+    static String mimeType(String contentType) {
+        if (contentType == null) {
+            return "";
+        }
+        int semicolon = contentType.indexOf(';');
+        if (semicolon != -1) {
+            contentType = contentType.substring(0, semicolon);
+        }
+        return contentType.trim().toLowerCase();
+    }
+}
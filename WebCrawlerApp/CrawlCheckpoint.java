@@ -0,0 +1,291 @@
+package WebCrawlerApp;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import Utilities.*;
+
+/**
+ * Periodic on-disk checkpoint of the crawl state, so a killed crawl can be
+ * resumed instead of restarted from the seed URL.
+ *
+ * seen.log is append-only: each save adds just the fingerprints of the
+ * URLs crawled since the previous save. frontier.snap is rewritten on every save (to a temporary
+ * file, then renamed) and records the page count, the frontier entries
+ * and how much of seen.log it is consistent with. save() only copies
+ * references to the frontier's entries, and for a spilling frontier opens
+ * its overflow segments; reading the scores, encoding and writing happen
+ * on a background thread, which copies spilled records byte for byte, so
+ * the crawl loop is held up by neither disk I/O nor decoding.
+ *
+ * A page is marked seen when it is taken off the frontier, but its links
+ * are queued only once it has been fetched and parsed. So each snapshot
+ * also lists the pages taken off and not yet done with, as entries and
+ * by fingerprint. A resumed crawl queues them again and does not count
+ * them as seen.
+ *
+ * Both files are read back on resume by memory-mapping them.
+ *
+ * frontier.snap: int magic, int version, int pagesProcessed,
+ * long seenLogLength, int numEntries, then numEntries x
+ * (int score, int length, UTF-8 url bytes), then int numPending and
+ * numPending x long fingerprint of the pages not done with.
+ * seen.log: (long fingerprint)*
+ */
+public class CrawlCheckpoint {
+    private static final int MAGIC = 0x43524b50;
+    private static final int VERSION = 4;
+
+    private File frontierFile;
+    private File seenLogFile;
+    private LongHashSet seenSinceLastSave;
+    private ExecutorService writer;
+    private Future<?> lastWrite;
+    //seen.log length once all submitted writes complete
+    private long seenLogLength;
+
+    private int restoredPagesProcessed;
+
+    public CrawlCheckpoint(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create checkpoint directory " + dir);
+        }
+        frontierFile = new File(dir, "frontier.snap");
+        seenLogFile = new File(dir, "seen.log");
+        seenSinceLastSave = new LongHashSet();
+        seenLogLength = seenLogFile.length();
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "crawl-checkpoint");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Discards any previous checkpoint, for a crawl that is not resuming
+     */
+    public void clear() throws IOException {
+        Files.deleteIfExists(frontierFile.toPath());
+        Files.deleteIfExists(seenLogFile.toPath());
+        seenLogLength = 0;
+    }
+
+    public boolean exists() {
+        return frontierFile.isFile();
+    }
+
+    /**
+     * Loads the last complete checkpoint into frontier and seenUrls.
+     * Returns false if there is no checkpoint to resume from.
+     */
+    public boolean restore(URLFrontier frontier, FingerprintSet seenUrls) throws IOException {
+        if (!exists()) {
+            return false;
+        }
+        long consistentSeenLength;
+        LongHashSet stillPending = new LongHashSet();
+        RandomAccessFile raf = new RandomAccessFile(frontierFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw new IOException("Not a crawl checkpoint: " + frontierFile);
+            }
+            restoredPagesProcessed = buf.getInt();
+            consistentSeenLength = buf.getLong();
+            int numEntries = buf.getInt();
+            for (int i = 0; i < numEntries; i ++) {
+                int score = buf.getInt();
+                CrawlURL url = readUrl(buf);
+                if (url == null) {
+                    continue;
+                }
+                URLScore existing = frontier.get(url);
+                if (existing != null) {
+                    //spilled duplicates carry partial scores
+                    frontier.increaseScore(existing, score);
+                    continue;
+                }
+                URLScore urlScore = new URLScore(url);
+                urlScore.updateScore(score);
+                frontier.add(urlScore);
+            }
+            int numPending = buf.getInt();
+            for (int i = 0; i < numPending; i ++) {
+                stillPending.add(buf.getLong());
+            }
+        } finally {
+            raf.close();
+        }
+
+        //seen.log may run past the snapshot if we died mid-save; drop the tail
+        raf = new RandomAccessFile(seenLogFile, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = Math.min(channel.size(), consistentSeenLength);
+            if (length > 0) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                while (buf.remaining() >= 8) {
+                    long fingerprint = buf.getLong();
+                    //queued again above
+                    if (!stillPending.contains(fingerprint)) {
+                        seenUrls.add(fingerprint);
+                    }
+                }
+            }
+            channel.truncate(length);
+        } finally {
+            raf.close();
+        }
+        seenLogLength = consistentSeenLength;
+        return true;
+    }
+
+    public int getRestoredPagesProcessed() {
+        return restoredPagesProcessed;
+    }
+
+    /**
+     * Notes the fingerprint of a URL that has been crawled since the last save
+     */
+    public void recordSeen(long fingerprint) {
+        seenSinceLastSave.add(fingerprint);
+    }
+
+    /**
+     * Captures the frontier, and the pages taken off it that are not done
+     * with yet, and hands them to the background writer. Returns false if
+     * the save was skipped because the previous one is still being
+     * written; the seen URLs are then kept for the next save.
+     */
+    public boolean save(URLFrontier frontier, Collection<URLScore> pending, int pagesProcessed) {
+        if (lastWrite != null && !lastWrite.isDone()) {
+            return false;
+        }
+        final List<URLScore> entries;
+        final List<SpillingURLFrontier.SpilledRecords> spilled;
+        if (frontier instanceof SpillingURLFrontier) {
+            SpillingURLFrontier spillingFrontier = (SpillingURLFrontier) frontier;
+            entries = spillingFrontier.hotEntries();
+            try {
+                spilled = spillingFrontier.spilledRecords();
+            } catch (IOException e) {
+                System.out.println("Could not checkpoint spilled frontier: " + e);
+                return false;
+            }
+        } else {
+            entries = frontier.pendingEntries();
+            spilled = new ArrayList<SpillingURLFrontier.SpilledRecords>();
+        }
+        final List<URLScore> pendingPages = new ArrayList<URLScore>(pending);
+        final LongHashSet newlySeen = seenSinceLastSave;
+        seenSinceLastSave = new LongHashSet();
+        final int pages = pagesProcessed;
+        lastWrite = writer.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                write(entries, pendingPages, spilled, newlySeen, pages);
+                return null;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Writes a final checkpoint and waits for it to reach disk
+     */
+    public void close(URLFrontier frontier, Collection<URLScore> pending, int pagesProcessed) {
+        try {
+            if (lastWrite != null) {
+                lastWrite.get();
+            }
+            save(frontier, pending, pagesProcessed);
+            lastWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("Could not write checkpoint: " + e.getCause());
+        }
+        writer.shutdown();
+    }
+
+    /**
+     * Scores of entries may have been raised since save; the snapshot
+     * takes whichever value it reads, which is as good for resuming
+     */
+    private void write(List<URLScore> entries, List<URLScore> pending,
+                       List<SpillingURLFrontier.SpilledRecords> spilled,
+                       LongHashSet newlySeen, int pagesProcessed) throws IOException {
+        long numEntries = entries.size() + pending.size();
+        for (SpillingURLFrontier.SpilledRecords records : spilled) {
+            numEntries += records.getNumRecords();
+        }
+        DataOutputStream seenOut = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(seenLogFile, true), 65536));
+        try {
+            seenLogLength += newlySeen.writeTo(seenOut);
+            seenOut.flush();
+        } finally {
+            seenOut.close();
+        }
+
+        File tmpFile = new File(frontierFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pagesProcessed);
+            out.writeLong(seenLogLength);
+            out.writeInt((int) Math.min(numEntries, Integer.MAX_VALUE));
+            for (URLScore entry : entries) {
+                out.writeInt(entry.getScore());
+                writeUrl(out, entry.getCrawlURL());
+            }
+            for (URLScore page : pending) {
+                out.writeInt(page.getScore());
+                writeUrl(out, page.getCrawlURL());
+            }
+            out.flush();
+            for (SpillingURLFrontier.SpilledRecords records : spilled) {
+                records.transferTo(fileOut.getChannel());
+            }
+            //the channel and the stream share a position, so this follows the spilled records
+            out.writeInt(pending.size());
+            for (URLScore page : pending) {
+                out.writeLong(page.getCrawlURL().fingerprint());
+            }
+            out.flush();
+        } finally {
+            for (SpillingURLFrontier.SpilledRecords records : spilled) {
+                records.close();
+            }
+            out.close();
+        }
+        Files.move(tmpFile.toPath(), frontierFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeUrl(DataOutputStream out, CrawlURL url) throws IOException {
+        byte[] bytes = url.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static CrawlURL readUrl(MappedByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        try {
+            return CrawlURL.parse(new String(bytes, StandardCharsets.UTF_8));
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
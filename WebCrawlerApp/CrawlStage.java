@@ -0,0 +1,114 @@
+package WebCrawlerApp;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of the pipelined crawl: a pool of numThreads worker threads
+ * taking items off a bounded queue. put blocks while the queue is full,
+ * so a stage that falls behind slows down the stages feeding it instead
+ * of letting work pile up. Keeps the queue depth seen by each put and the
+ * time workers spend per item, so the slowest stage shows in the stats.
+ */
+public class CrawlStage<T> {
+    /**
+     * What the stage does with each item
+     */
+    public interface Worker<T> {
+        void process(T item) throws InterruptedException;
+    }
+
+    private String name;
+    private int numThreads;
+    private int capacity;
+    private BlockingQueue<T> queue;
+    private Worker<T> worker;
+    private ExecutorService threads;
+
+    private AtomicLong numItems = new AtomicLong();
+    private AtomicLong serviceNanos = new AtomicLong();
+    private AtomicLong numPuts = new AtomicLong();
+    private AtomicLong depthSum = new AtomicLong();
+    private AtomicLong maxDepth = new AtomicLong();
+
+    public CrawlStage(String name, int numThreads, int capacity, Worker<T> worker) {
+        if (numThreads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Stage " + name + " needs a thread and a queue slot");
+        }
+        this.name = name;
+        this.numThreads = numThreads;
+        this.capacity = capacity;
+        this.worker = worker;
+        queue = new ArrayBlockingQueue<T>(capacity);
+    }
+
+    public void start() {
+        threads = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private int numCreated = 0;
+
+            public synchronized Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, name + "-" + (numCreated ++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < numThreads; i ++) {
+            threads.execute(new Runnable() {
+                public void run() {
+                    work();
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues item for the stage, waiting for room if the queue is full
+     */
+    public void put(T item) throws InterruptedException {
+        int depth = queue.size();
+        numPuts.incrementAndGet();
+        depthSum.addAndGet(depth);
+        long max;
+        while (depth > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, depth)) {
+            //raced with another put; retry against its maximum
+        }
+        queue.put(item);
+    }
+
+    /**
+     * Stops the workers; items still queued are dropped
+     */
+    public void shutdown() {
+        if (threads != null) {
+            threads.shutdownNow();
+        }
+    }
+
+    public void printStats() {
+        long items = numItems.get();
+        long puts = numPuts.get();
+        System.out.println("Stage " + name + ": " + items + " items, "
+            + (items == 0 ? 0 : serviceNanos.get() / items / 1000) + "us each on " + numThreads + " threads, "
+            + "queue depth avg " + (puts == 0 ? 0 : depthSum.get() / puts)
+            + " max " + maxDepth.get() + " of " + capacity);
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                T item = queue.take();
+                long start = System.nanoTime();
+                try {
+                    worker.process(item);
+                } catch (RuntimeException e) {
+                    //one bad page must not take the stage down with it
+                    System.out.println("Stage " + name + " failed on an item: " + e);
+                }
+                serviceNanos.addAndGet(System.nanoTime() - start);
+                numItems.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            //shut down
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package WebCrawlerApp;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Immutable key for a URL in the frontier and the seen set.
+ *
+ * Unlike java.net.URL, hashCode and equals never resolve the host: they
+ * work on a canonical string (lower-case scheme and host, default port
+ * and fragment dropped, empty path as "/") whose hash is computed once.
+ * Host and path are split out up front for the politeness and robots
+ * checks, and a 64-bit fingerprint of the canonical string stands in for
+ * the URL in the seen set.
+ */
+public final class CrawlURL {
+    private final String scheme;
+    private final String host;
+    private final int port;
+    private final String file;
+    private final String spec;
+    private final int hash;
+    private final long fingerprint;
+
+    private CrawlURL(String scheme, String host, int port, String file) {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.file = file;
+        StringBuilder sb = new StringBuilder(scheme.length() + host.length() + file.length() + 9);
+        sb.append(scheme).append("://").append(host);
+        if (port != -1) {
+            sb.append(':').append(port);
+        }
+        sb.append(file);
+        spec = sb.toString();
+        hash = spec.hashCode();
+        fingerprint = fingerprintOf(spec);
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars of s, finished with the MurmurHash3
+     * mixer so that the low bits are usable directly as a table index
+     */
+    static long fingerprintOf(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i ++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static CrawlURL fromURL(URL url) {
+        String scheme = url.getProtocol().toLowerCase();
+        int port = url.getPort();
+        if (port == url.getDefaultPort()) {
+            port = -1;
+        }
+        String file = url.getFile();
+        if (file.isEmpty()) {
+            file = "/";
+        }
+        return new CrawlURL(scheme, url.getHost().toLowerCase(), port, file);
+    }
+
+    public static CrawlURL parse(String spec) throws MalformedURLException {
+        return fromURL(new URL(spec));
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+    public String getHost() {
+        return host;
+    }
+    /**
+     * Explicit port, or -1 for the scheme's default port
+     */
+    public int getPort() {
+        return port;
+    }
+    /**
+     * Path plus query string, as URL.getFile()
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * 64-bit hash of the canonical URL; equal URLs have equal fingerprints
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    public URL toURL() {
+        try {
+            return new URL(spec);
+        } catch (MalformedURLException e) {
+            //spec was produced from a valid URL
+            throw new IllegalStateException("Invalid canonical URL " + spec, e);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof CrawlURL)) {
+            return false;
+        }
+        CrawlURL other = (CrawlURL) o;
+        return hash == other.hash && spec.equals(other.spec);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,192 @@
+package WebCrawlerApp;
+
+import java.net.*;
+import java.security.Security;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Host name resolutions owned by the crawler, kept for the most recently
+ * used MAX_HOSTS hosts: addresses for ttlMillis, failures for
+ * negativeTtlMillis. Lookups run on a small pool of daemon threads, so a
+ * host can be prefetched as soon as a link to it is queued, and the fetch
+ * finds it resolved. The fetchers still resolve through the JDK, whose
+ * own cache is warm by then too if configureJdkCache gave it the same
+ * TTLs before anything was resolved; the hit rate in printStats counts
+ * only this cache.
+ */
+public class DnsCache {
+    private static final int MAX_HOSTS = 10000;
+    //lookups queued or running; further prefetches are dropped, to be resolved on demand
+    private static final int MAX_PENDING_LOOKUPS = 1000;
+    private static final int NUM_LOOKUP_THREADS = 8;
+    //latency buckets: under 1ms, then powers of two up to 2^(NUM_BUCKETS-2)ms and over
+    private static final int NUM_LATENCY_BUCKETS = 14;
+
+    /**
+     * A finished or running lookup
+     */
+    private static class Entry {
+        private CompletableFuture<InetAddress[]> addresses;
+        //0 while the lookup runs
+        private long expiresAt;
+
+        Entry(CompletableFuture<InetAddress[]> addresses) {
+            this.addresses = addresses;
+            expiresAt = 0;
+        }
+    }
+
+    private long ttlMillis;
+    private long negativeTtlMillis;
+    private Map<String, Entry> entriesByHost;
+    private ExecutorService lookups;
+    private int numPendingLookups;
+
+    private long numHits;
+    private long numPendingHits;
+    private long numMisses;
+    private long numPrefetches;
+    private AtomicLongArray latencyCounts = new AtomicLongArray(NUM_LATENCY_BUCKETS);
+
+    public DnsCache(long ttlMillis, long negativeTtlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        entriesByHost = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_HOSTS;
+            }
+        };
+        lookups = Executors.newFixedThreadPool(NUM_LOOKUP_THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "dns-lookup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Gives the JDK's address cache these TTLs, 0 meaning not to cache;
+     * the JDK reads them once, at its first lookup, so call this before
+     * any networking is done
+     */
+    public static void configureJdkCache(long ttlMillis, long negativeTtlMillis) {
+        Security.setProperty("networkaddress.cache.ttl", Long.toString(ttlMillis / 1000));
+        Security.setProperty("networkaddress.cache.negative.ttl", Long.toString(negativeTtlMillis / 1000));
+    }
+
+    /**
+     * Completes with the addresses of host, or exceptionally with an
+     * UnknownHostException
+     */
+    public synchronized CompletableFuture<InetAddress[]> resolve(String host) {
+        Entry entry = liveEntry(host);
+        if (entry != null) {
+            if (entry.expiresAt == 0) {
+                //still being prefetched
+                numPendingHits ++;
+            } else {
+                numHits ++;
+            }
+            return entry.addresses;
+        }
+        numMisses ++;
+        return lookUp(host).addresses;
+    }
+
+    /**
+     * Starts resolving host in the background unless it is known or the
+     * lookup threads are already busy
+     */
+    public synchronized void prefetch(String host) {
+        if (host.isEmpty() || liveEntry(host) != null || numPendingLookups >= MAX_PENDING_LOOKUPS) {
+            return;
+        }
+        numPrefetches ++;
+        lookUp(host);
+    }
+
+    public void close() {
+        lookups.shutdownNow();
+    }
+
+    public synchronized void printStats() {
+        long numLookups = numHits + numPendingHits + numMisses;
+        System.out.println("DNS cache: " + numHits + " hits, " + numPendingHits + " waits on a prefetch, "
+            + numMisses + " misses (hit rate "
+            + (numLookups == 0 ? 0 : 100 * (numHits + numPendingHits) / numLookups) + "%), "
+            + numPrefetches + " prefetches");
+        StringBuilder histogram = new StringBuilder("DNS lookup latency:");
+        for (int bucket = 0; bucket < NUM_LATENCY_BUCKETS; bucket ++) {
+            long count = latencyCounts.get(bucket);
+            if (count == 0) {
+                continue;
+            }
+            if (bucket == 0) {
+                histogram.append(" <1ms");
+            } else if (bucket == NUM_LATENCY_BUCKETS - 1) {
+                histogram.append(" >=").append(1L << (bucket - 1)).append("ms");
+            } else {
+                histogram.append(" ").append(1L << (bucket - 1)).append("-").append(1L << bucket).append("ms");
+            }
+            histogram.append(": ").append(count);
+        }
+        System.out.println(histogram);
+    }
+
+    private Entry liveEntry(String host) {
+        Entry entry = entriesByHost.get(host);
+        if (entry != null && entry.expiresAt != 0 && entry.expiresAt <= System.currentTimeMillis()) {
+            entriesByHost.remove(host);
+            return null;
+        }
+        return entry;
+    }
+
+    private Entry lookUp(final String host) {
+        final Entry entry = new Entry(new CompletableFuture<InetAddress[]>());
+        entriesByHost.put(host, entry);
+        numPendingLookups ++;
+        Runnable lookup = new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                InetAddress[] addresses = null;
+                UnknownHostException failure = null;
+                try {
+                    addresses = InetAddress.getAllByName(host);
+                } catch (UnknownHostException e) {
+                    failure = e;
+                }
+                recordLatency(System.nanoTime() - start);
+                synchronized (DnsCache.this) {
+                    numPendingLookups --;
+                    entry.expiresAt = System.currentTimeMillis()
+                        + (failure == null ? ttlMillis : negativeTtlMillis);
+                }
+                if (failure == null) {
+                    entry.addresses.complete(addresses);
+                } else {
+                    entry.addresses.completeExceptionally(failure);
+                }
+            }
+        };
+        try {
+            lookups.execute(lookup);
+        } catch (RejectedExecutionException e) {
+            //closed: fail now rather than leave the fetch waiting
+            numPendingLookups --;
+            entriesByHost.remove(host);
+            entry.addresses.completeExceptionally(new UnknownHostException(host + " (DNS cache closed)"));
+        }
+        return entry;
+    }
+
+    private void recordLatency(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = (millis == 0) ? 0 : Math.min(64 - Long.numberOfLeadingZeros(millis), NUM_LATENCY_BUCKETS - 1);
+        latencyCounts.incrementAndGet(bucket);
+    }
+}
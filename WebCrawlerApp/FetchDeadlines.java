@@ -0,0 +1,162 @@
+package WebCrawlerApp;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.*;
+
+/**
+ * Time budgets for the fetchers. Connect and read timeouts bound each
+ * blocking step; on top of those every request gets a Deadline, checked
+ * every CHECK_MILLIS on a shared timer thread, that aborts the request
+ * once it has run for totalMillis, or once its body, GRACE_MILLIS after
+ * it started, is arriving at under minBytesPerSecond. A server trickling
+ * a byte just inside the read timeout thus still cannot hold a fetch for
+ * long.
+ */
+public class FetchDeadlines {
+    private static final long CHECK_MILLIS = 500;
+    //slow starts are normal; throughput is judged only after this long
+    private static final long GRACE_MILLIS = 5000;
+
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+    private long totalMillis;
+    private long minBytesPerSecond;
+    private ScheduledExecutorService timer;
+
+    public FetchDeadlines(int connectTimeoutMillis, int readTimeoutMillis, long totalMillis, long minBytesPerSecond) {
+        if (connectTimeoutMillis < 1 || readTimeoutMillis < 1 || totalMillis < 1) {
+            throw new IllegalArgumentException("Fetch timeouts must be positive");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.totalMillis = totalMillis;
+        this.minBytesPerSecond = minBytesPerSecond;
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "fetch-deadlines");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * Starts the clock on a request; end the returned Deadline when the
+     * request is done
+     */
+    public Deadline start(String url) {
+        Deadline deadline = new Deadline(url);
+        try {
+            deadline.check = timer.scheduleAtFixedRate(deadline, CHECK_MILLIS, CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //closed: the request goes unwatched
+        }
+        return deadline;
+    }
+
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * The budget of one request. The fetcher reports body bytes as they
+     * arrive and says how to abort the request; that is run at most once,
+     * on the timer thread, when the budget runs out.
+     */
+    public class Deadline implements Runnable {
+        private String url;
+        private long startNanos;
+        //-1 until the response headers are in
+        private long bodyStartNanos = -1;
+        private long numBytes;
+        private Runnable abort;
+        private String expiredReason;
+        private volatile ScheduledFuture<?> check;
+
+        Deadline(String url) {
+            this.url = url;
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Called when the response headers are in, before any addBytes
+         */
+        public synchronized void startBody() {
+            bodyStartNanos = System.nanoTime();
+        }
+
+        public synchronized void addBytes(long count) {
+            numBytes += count;
+        }
+
+        /**
+         * Sets how to abort the request; runs it now if the deadline has
+         * already passed
+         */
+        public void setAbort(Runnable abort) {
+            synchronized (this) {
+                this.abort = abort;
+                if (expiredReason == null) {
+                    return;
+                }
+            }
+            abort.run();
+        }
+
+        public synchronized boolean isExpired() {
+            return expiredReason != null;
+        }
+
+        /**
+         * What the request fails with once the deadline has passed
+         */
+        public synchronized SocketTimeoutException failure() {
+            return new SocketTimeoutException("Fetch of " + url + " abandoned: " + expiredReason);
+        }
+
+        /**
+         * Stops watching the request
+         */
+        public void end() {
+            if (check != null) {
+                check.cancel(false);
+            }
+        }
+
+        public void run() {
+            Runnable toRun;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long elapsedMillis = (now - startNanos) / 1000000;
+                long bodyMillis = (bodyStartNanos == -1) ? 0 : (now - bodyStartNanos) / 1000000;
+                if (expiredReason != null) {
+                    return;
+                }
+                if (elapsedMillis >= totalMillis) {
+                    expiredReason = "over " + totalMillis + "ms";
+                } else if (bodyMillis >= GRACE_MILLIS && numBytes * 1000 < minBytesPerSecond * bodyMillis) {
+                    expiredReason = "under " + minBytesPerSecond + " bytes/s";
+                } else {
+                    return;
+                }
+                toRun = abort;
+            }
+            end();
+            if (toRun != null) {
+                toRun.run();
+            }
+        }
+    }
+}
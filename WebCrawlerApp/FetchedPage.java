@@ -0,0 +1,94 @@
+package WebCrawlerApp;
+
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Response to a page or robots.txt request, as returned by a PageFetcher
+ */
+public class FetchedPage {
+    private URL url;
+    private int statusCode;
+    //header names lower-cased; first value only
+    private Map<String, String> headers;
+    private BodyReader.Body body;
+
+    public FetchedPage(URL url, int statusCode, Map<String, String> headers, BodyReader.Body body) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public URL getURL() {
+        return url;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * True for a 304 answer to a conditional GET: the saved copy is current
+     */
+    public boolean isNotModified() {
+        return statusCode == 304;
+    }
+
+    /**
+     * First value of the named header, or null; the name is case-insensitive
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    public byte[] getBody() {
+        return body.getBytes();
+    }
+
+    /**
+     * True if the body was cut off at the fetcher's size limit
+     */
+    public boolean isTruncated() {
+        return body.isTruncated();
+    }
+
+    /**
+     * True if the body was abandoned because it is not HTML
+     */
+    public boolean isRejected() {
+        return body.isRejected();
+    }
+
+    /**
+     * Bytes of body received, before any Content-Encoding was undone
+     */
+    public long getWireLength() {
+        return body.getWireLength();
+    }
+
+    /**
+     * Links found in the body as it arrived, or null if it was not scanned
+     */
+    public List<LinkScanner.Link> getLinks() {
+        return body.getLinks();
+    }
+
+    /**
+     * SHA-256 of the body, or null if it was not hashed as it arrived
+     */
+    public byte[] getContentHash() {
+        return body.getContentHash();
+    }
+
+    /**
+     * The body decoded with the response's charset
+     */
+    public String getText() {
+        return BodyReader.decode(body.getBytes(), getHeader("Content-Type"));
+    }
+}
@@ -0,0 +1,20 @@
+package WebCrawlerApp;
+
+/**
+ * One queued reference to a URLScore in a FIFO-based frontier. The slot is
+ * stale, and is dropped when it is reached, once the entry has been
+ * requeued (its generation moved on) or has left the frontier.
+ */
+final class FrontierSlot {
+    final URLScore entry;
+    final int generation;
+
+    FrontierSlot(URLScore entry) {
+        this.entry = entry;
+        this.generation = ++ entry.generation;
+    }
+
+    boolean isCurrent() {
+        return generation == entry.generation;
+    }
+}
@@ -0,0 +1,217 @@
+package WebCrawlerApp;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Per-host limits on concurrent fetches and on the gap between starting
+ * them. Fixed, the limit is maxConnections and there is no gap. Adaptive,
+ * each host starts at one fetch at a time and is tuned AIMD-style from
+ * what its fetches report: every quick response raises the limit by
+ * 1/limit and shrinks the gap; responses slowing to SLOW_FACTOR times the
+ * host's best latency cut the limit by a quarter and stretch the gap to
+ * at least the latency; a 429, a 503 or a failed connection halves the
+ * limit and doubles the gap, and a Retry-After holds the host off for as
+ * long as it asks.
+ *
+ * Adaptive or not, a host whose fetches time out QUARANTINE_TIMEOUTS times
+ * in a row is quarantined: nothing is started on it for quarantineMillis,
+ * doubling with each further quarantine up to MAX_QUARANTINE_MILLIS.
+ * State is kept for the most recently used MAX_HOSTS hosts.
+ */
+public class HostRateController {
+    private static final int MAX_HOSTS = 10000;
+    private static final double SLOW_FACTOR = 3.0;
+    //latencies below this never count as slow, however fast the host was before
+    private static final long SLOW_FLOOR_MILLIS = 250;
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final long BACKOFF_MIN_GAP_MILLIS = 1000;
+    private static final long MAX_GAP_MILLIS = 60 * 1000;
+    private static final long MAX_RETRY_AFTER_MILLIS = 10 * 60 * 1000;
+    private static final int QUARANTINE_TIMEOUTS = 3;
+    private static final long MAX_QUARANTINE_MILLIS = 60 * 60 * 1000;
+
+    private static class HostState {
+        private double limit;
+        private long gapMillis;
+        private int numInFlight;
+        private long nextStartTime;
+        //-1 until the first response
+        private long bestLatencyMillis = -1;
+        private double latencyEwma;
+        private int numTimeoutsInARow;
+        private int numQuarantines;
+    }
+
+    private int maxConnections;
+    private boolean adaptive;
+    private long quarantineMillis;
+    private Map<String, HostState> statesByHost;
+    private long numBackoffs;
+    private long numSlowdowns;
+    private long numQuarantines;
+
+    public HostRateController(int maxConnections, boolean adaptive, long quarantineMillis) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Need at least one connection per host: " + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        this.adaptive = adaptive;
+        this.quarantineMillis = quarantineMillis;
+        statesByHost = new LinkedHashMap<String, HostState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HostState> eldest) {
+                //a host with fetches in flight must keep its count
+                return size() > MAX_HOSTS && eldest.getValue().numInFlight == 0;
+            }
+        };
+    }
+
+    /**
+     * Millis until a fetch from host may start, 0 if one may start now
+     */
+    public synchronized long millisUntilReady(String host) {
+        HostState state = stateOf(host);
+        if (state.numInFlight >= (int) state.limit) {
+            //until one of the fetches in flight finishes; no telling when
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, state.nextStartTime - System.currentTimeMillis());
+    }
+
+    /**
+     * Counts a fetch from host as started if the host's limits allow it
+     * now, and returns whether they did
+     */
+    public synchronized boolean tryStart(String host) {
+        if (millisUntilReady(host) > 0) {
+            return false;
+        }
+        HostState state = stateOf(host);
+        state.numInFlight ++;
+        state.nextStartTime = System.currentTimeMillis() + state.gapMillis;
+        return true;
+    }
+
+    /**
+     * Ends a fetch counted by tryStart
+     */
+    public synchronized void finish(String host) {
+        HostState state = stateOf(host);
+        if (state.numInFlight > 0) {
+            state.numInFlight --;
+        }
+    }
+
+    /**
+     * Adjusts host's limits to a response that took latencyMillis;
+     * retryAfterMillis is 0 unless the response had a Retry-After
+     */
+    public synchronized void recordResponse(String host, long latencyMillis, int statusCode, long retryAfterMillis) {
+        HostState state = stateOf(host);
+        state.numTimeoutsInARow = 0;
+        if (!adaptive) {
+            return;
+        }
+        if (statusCode == 429 || statusCode == 503) {
+            backOff(state);
+            if (retryAfterMillis > 0) {
+                state.nextStartTime = Math.max(state.nextStartTime,
+                    System.currentTimeMillis() + Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS));
+            }
+            return;
+        }
+        if (state.bestLatencyMillis == -1) {
+            state.latencyEwma = latencyMillis;
+        } else {
+            state.latencyEwma += LATENCY_WEIGHT * (latencyMillis - state.latencyEwma);
+        }
+        if (state.bestLatencyMillis == -1 || latencyMillis < state.bestLatencyMillis) {
+            state.bestLatencyMillis = latencyMillis;
+        }
+        if (state.latencyEwma > SLOW_FLOOR_MILLIS && state.latencyEwma > SLOW_FACTOR * state.bestLatencyMillis) {
+            numSlowdowns ++;
+            state.limit = Math.max(1, state.limit * 0.75);
+            state.gapMillis = Math.min(MAX_GAP_MILLIS, Math.max(state.gapMillis, (long) state.latencyEwma));
+        } else {
+            state.limit = Math.min(maxConnections, state.limit + 1 / state.limit);
+            state.gapMillis = state.gapMillis * 3 / 4;
+        }
+    }
+
+    /**
+     * Adjusts host's limits to a fetch that got no response; timedOut if
+     * it ran out of time rather than being refused or reset. Returns how
+     * long host is quarantined for, or 0 if this failure did not start a
+     * quarantine
+     */
+    public synchronized long recordFailure(String host, boolean timedOut) {
+        HostState state = stateOf(host);
+        if (adaptive) {
+            backOff(state);
+        }
+        if (!timedOut) {
+            return 0;
+        }
+        state.numTimeoutsInARow ++;
+        if (state.numTimeoutsInARow >= QUARANTINE_TIMEOUTS) {
+            state.numTimeoutsInARow = 0;
+            long millis = Math.min(MAX_QUARANTINE_MILLIS, quarantineMillis << Math.min(state.numQuarantines, 20));
+            state.numQuarantines ++;
+            numQuarantines ++;
+            state.nextStartTime = Math.max(state.nextStartTime, System.currentTimeMillis() + millis);
+            return millis;
+        }
+        return 0;
+    }
+
+    public synchronized void printStats() {
+        if (adaptive) {
+            System.out.println("Rate control: " + numBackoffs + " back-offs on errors, "
+                + numSlowdowns + " slowdowns on latency");
+        }
+        System.out.println("Quarantine: " + numQuarantines + " host quarantines after repeated timeouts");
+    }
+
+    /**
+     * Millis a Retry-After header value asks to wait, given as seconds or
+     * as an HTTP date; 0 if absent or unreadable
+     */
+    public static long parseRetryAfter(String value) {
+        if (value == null) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            //not seconds; try a date
+        }
+        try {
+            ZonedDateTime retryTime = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, retryTime.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    private void backOff(HostState state) {
+        numBackoffs ++;
+        state.limit = Math.max(1, state.limit / 2);
+        state.gapMillis = Math.min(MAX_GAP_MILLIS, Math.max(state.gapMillis * 2, BACKOFF_MIN_GAP_MILLIS));
+        state.nextStartTime = Math.max(state.nextStartTime, System.currentTimeMillis() + state.gapMillis);
+    }
+
+    private HostState stateOf(String host) {
+        HostState state = statesByHost.get(host);
+        if (state == null) {
+            state = new HostState();
+            state.limit = adaptive ? 1 : maxConnections;
+            state.gapMillis = 0;
+            statesByHost.put(host, state);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,139 @@
+package WebCrawlerApp;
+
+import java.util.*;
+
+/**
+ * Max-heap of URLScore objects keyed by CrawlURL. Each entry
+ * remembers its own slot in the heap array, so a URL that is found
+ * again on a later page has its score raised in place (O(log n))
+ * instead of being pushed a second time, and membership is a single
+ * hash lookup instead of a scan over the whole queue.
+ */
+public class IndexedURLHeap implements URLFrontier {
+    private URLScore[] heap;
+    private int size;
+    private Map<CrawlURL, URLScore> index;
+
+    public IndexedURLHeap() {
+        this(16);
+    }
+
+    public IndexedURLHeap(int initialCapacity) {
+        heap = new URLScore[Math.max(initialCapacity, 2)];
+        size = 0;
+        index = new HashMap<CrawlURL, URLScore>();
+    }
+
+    public boolean contains(CrawlURL url) {
+        return index.containsKey(url);
+    }
+
+    /**
+     * Returns the pending entry for url, or null if it is not queued
+     */
+    public URLScore get(CrawlURL url) {
+        return index.get(url);
+    }
+
+    /**
+     * Queues a new entry; the URL must not already be queued
+     */
+    public void add(URLScore urlScore) {
+        CrawlURL key = urlScore.getCrawlURL();
+        if (index.containsKey(key)) {
+            throw new IllegalArgumentException("Already queued: " + key);
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        index.put(key, urlScore);
+        heap[size] = urlScore;
+        urlScore.heapIndex = size;
+        size ++;
+        siftUp(size - 1);
+    }
+
+    /**
+     * Adds delta to the score of a queued entry and restores heap order
+     */
+    public void increaseScore(URLScore urlScore, int delta) {
+        if (urlScore.heapIndex < 0 || heap[urlScore.heapIndex] != urlScore) {
+            throw new IllegalArgumentException("Not queued: " + urlScore.getURLAsString());
+        }
+        urlScore.updateScore(urlScore.getScore() + delta);
+        if (delta >= 0) {
+            siftUp(urlScore.heapIndex);
+        } else {
+            siftDown(urlScore.heapIndex);
+        }
+    }
+
+    public URLScore peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    public URLScore poll() {
+        if (size == 0) {
+            return null;
+        }
+        URLScore top = heap[0];
+        size --;
+        if (size > 0) {
+            heap[0] = heap[size];
+            heap[0].heapIndex = 0;
+            siftDown(0);
+        }
+        heap[size] = null;
+        top.heapIndex = -1;
+        index.remove(top.getCrawlURL());
+        return top;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<URLScore> pendingEntries() {
+        return new ArrayList<URLScore>(Arrays.asList(heap).subList(0, size));
+    }
+
+    private void siftUp(int i) {
+        URLScore moving = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].getScore() >= moving.getScore()) {
+                break;
+            }
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(moving, i);
+    }
+
+    private void siftDown(int i) {
+        URLScore moving = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = (2 * i) + 1;
+            int right = child + 1;
+            if (right < size && heap[right].getScore() > heap[child].getScore()) {
+                child = right;
+            }
+            if (moving.getScore() >= heap[child].getScore()) {
+                break;
+            }
+            place(heap[child], i);
+            i = child;
+        }
+        place(moving, i);
+    }
+
+    private void place(URLScore urlScore, int i) {
+        heap[i] = urlScore;
+        urlScore.heapIndex = i;
+    }
+}
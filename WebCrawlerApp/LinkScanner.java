@@ -0,0 +1,198 @@
+package WebCrawlerApp;
+
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Finds the links of a page in its bytes as they arrive, so they are all
+ * known the moment the download ends instead of after another pass over
+ * the whole page. Each link is an <A ... /A> element, as found by
+ * WebCrawler.findHrefOutlinks, with the NUM_CONTEXT_WORDS whitespace
+ * separated words before and after it, as processHrefLink takes them from
+ * the page. Only the element being read and the words around it are kept:
+ * an element longer than MAX_ELEMENT_BYTES is dropped, and a word is cut
+ * off after MAX_WORD_BYTES.
+ */
+public class LinkScanner {
+    private static final int NUM_CONTEXT_WORDS = 5;
+    private static final int MAX_ELEMENT_BYTES = 16 * 1024;
+    private static final int MAX_WORD_BYTES = 1024;
+
+    /**
+     * A link element with the words around it
+     */
+    public static class Link {
+        private String element;
+        private List<String> prvFiveWords;
+        private List<String> nextFiveWords = new ArrayList<String>(NUM_CONTEXT_WORDS);
+
+        Link(String element, List<String> prvFiveWords) {
+            this.element = element;
+            this.prvFiveWords = prvFiveWords;
+        }
+
+        /**
+         * From "<A" to "/A>", e.g. <A href="MarineMammal.html">marine mammals.</A>
+         */
+        public String getElement() {
+            return element;
+        }
+
+        public List<String> getPrvFiveWords() {
+            return prvFiveWords;
+        }
+
+        public List<String> getNextFiveWords() {
+            return nextFiveWords;
+        }
+    }
+
+    /**
+     * A link still collecting the words after it
+     */
+    private static class Pending {
+        //the byte after the element is not part of its next words
+        private static final int SKIPPING = -2;
+        //taking whole words
+        private static final int WHOLE_WORDS = -1;
+
+        private Link link;
+        //else where in the current word its next words start
+        private int offset = SKIPPING;
+
+        Pending(Link link) {
+            this.link = link;
+        }
+    }
+
+    private Charset charset;
+    private List<Link> links = new ArrayList<Link>();
+    //the words before the current one, oldest first
+    private Deque<String> recentWords = new ArrayDeque<String>(NUM_CONTEXT_WORDS + 1);
+    private byte[] word = new byte[64];
+    private int wordLength;
+    //length of the current word before the '<' just read; -1 if the last byte was not '<'
+    private int wordLengthBeforeTag = -1;
+    //null outside an element
+    private byte[] element;
+    private int elementLength;
+    private List<String> elementPrvWords;
+    private List<Pending> pending = new ArrayList<Pending>();
+
+    public LinkScanner(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Scans the next len bytes of the page
+     */
+    public void scan(byte[] src, int off, int len) {
+        for (int i = off; i < off + len; i ++) {
+            scan(src[i]);
+        }
+    }
+
+    /**
+     * Ends the page and returns its links, in page order
+     */
+    public List<Link> finish() {
+        endWord();
+        pending.clear();
+        element = null;
+        return links;
+    }
+
+    private void scan(byte b) {
+        if (isWhitespace(b)) {
+            endWord();
+        } else {
+            if (wordLength < MAX_WORD_BYTES) {
+                if (wordLength == word.length) {
+                    word = Arrays.copyOf(word, Math.min(word.length * 2, MAX_WORD_BYTES));
+                }
+                word[wordLength ++] = b;
+            }
+        }
+        for (Pending link : pending) {
+            if (link.offset == Pending.SKIPPING) {
+                link.offset = wordLength;
+            }
+        }
+        if (element != null) {
+            appendToElement(b);
+        } else if (b == 'A' && wordLengthBeforeTag >= 0) {
+            startElement();
+        }
+        wordLengthBeforeTag = (b == '<') ? wordLength - 1 : -1;
+    }
+
+    private void startElement() {
+        List<String> prvWords = new ArrayList<String>(recentWords);
+        if (wordLengthBeforeTag > 0) {
+            prvWords.add(new String(word, 0, wordLengthBeforeTag, charset));
+        }
+        if (prvWords.size() > NUM_CONTEXT_WORDS) {
+            prvWords = prvWords.subList(prvWords.size() - NUM_CONTEXT_WORDS, prvWords.size());
+        }
+        elementPrvWords = prvWords;
+        element = new byte[256];
+        element[0] = '<';
+        element[1] = 'A';
+        elementLength = 2;
+    }
+
+    private void appendToElement(byte b) {
+        if (elementLength == MAX_ELEMENT_BYTES) {
+            //not a link anyone wrote by hand; don't hold on to it
+            element = null;
+            return;
+        }
+        if (elementLength == element.length) {
+            element = Arrays.copyOf(element, Math.min(element.length * 2, MAX_ELEMENT_BYTES));
+        }
+        element[elementLength ++] = b;
+        if (b != '>' || element[elementLength - 2] != 'A' || element[elementLength - 3] != '/') {
+            return;
+        }
+        String elementStr = new String(element, 0, elementLength, charset);
+        element = null;
+        //filtering out unwanted html elements: not a href tag
+        if (!elementStr.toLowerCase().contains("href")) {
+            return;
+        }
+        Link link = new Link(elementStr, new ArrayList<String>(elementPrvWords));
+        links.add(link);
+        pending.add(new Pending(link));
+    }
+
+    private void endWord() {
+        Iterator<Pending> it = pending.iterator();
+        while (it.hasNext()) {
+            Pending link = it.next();
+            if (link.offset == Pending.SKIPPING) {
+                continue;
+            }
+            if (wordLength > 0 && link.offset < wordLength) {
+                int start = Math.max(link.offset, 0);
+                link.link.nextFiveWords.add(new String(word, start, wordLength - start, charset));
+            }
+            link.offset = Pending.WHOLE_WORDS;
+            if (link.link.nextFiveWords.size() == NUM_CONTEXT_WORDS) {
+                it.remove();
+            }
+        }
+        if (wordLength == 0) {
+            return;
+        }
+        recentWords.addLast(new String(word, 0, wordLength, charset));
+        if (recentWords.size() > NUM_CONTEXT_WORDS) {
+            recentWords.removeFirst();
+        }
+        wordLength = 0;
+    }
+
+    //as \s in a regex
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+}
@@ -0,0 +1,245 @@
+package WebCrawlerApp;
+
+import java.util.*;
+
+/**
+ * Bounded frontier that keeps only the capacity best-scored URLs.
+ *
+ * Entries live in an addressable min-max heap: nodes on even levels are
+ * no larger than their descendants and nodes on odd levels no smaller,
+ * so both the best entry (for poll) and the worst entry (for eviction)
+ * are found in O(1) and removed in O(log n). When the frontier is full,
+ * a new URL either displaces the current minimum or, if it scores no
+ * higher, is dropped.
+ */
+public class MinMaxURLHeap implements URLFrontier {
+    private URLScore[] heap;
+    private int size;
+    private int capacity;
+    private Map<CrawlURL, URLScore> index;
+    private long numEvicted;
+
+    public MinMaxURLHeap(int capacity) {
+        heap = new URLScore[Math.max(Math.min(capacity, 1024), 2)];
+        size = 0;
+        index = new HashMap<CrawlURL, URLScore>();
+        numEvicted = 0;
+        setCapacity(capacity);
+    }
+
+    /**
+     * Changes the bound, evicting the lowest scores if the frontier is now over it
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        while (size > capacity) {
+            evict(removeAt(minIndex()));
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    /**
+     * Lowest retained score; a new URL must beat it to get in once the frontier is full
+     */
+    public int minScore() {
+        return size == 0 ? Integer.MIN_VALUE : heap[0].getScore();
+    }
+
+    /**
+     * URLs dropped so far because they scored too low to be kept
+     */
+    public long getNumEvicted() {
+        return numEvicted;
+    }
+
+    public URLScore get(CrawlURL url) {
+        return index.get(url);
+    }
+
+    public void add(URLScore urlScore) {
+        CrawlURL key = urlScore.getCrawlURL();
+        if (index.containsKey(key)) {
+            throw new IllegalArgumentException("Already queued: " + key);
+        }
+        if (size >= capacity) {
+            if (urlScore.getScore() <= heap[0].getScore()) {
+                numEvicted ++;
+                return;
+            }
+            evict(removeAt(0));
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        index.put(key, urlScore);
+        place(urlScore, size);
+        size ++;
+        bubbleUp(size - 1);
+    }
+
+    public void increaseScore(URLScore urlScore, int delta) {
+        int i = urlScore.heapIndex;
+        if (i < 0 || i >= size || heap[i] != urlScore) {
+            throw new IllegalArgumentException("Not queued: " + urlScore.getURLAsString());
+        }
+        urlScore.updateScore(urlScore.getScore() + delta);
+        bubbleUp(trickleDown(i));
+    }
+
+    public URLScore poll() {
+        if (size == 0) {
+            return null;
+        }
+        URLScore top = removeAt(maxIndex());
+        index.remove(top.getCrawlURL());
+        return top;
+    }
+
+    /**
+     * Removes and returns the lowest-scored entry, or null if empty; unlike
+     * an eviction, the caller keeps it
+     */
+    public URLScore pollMin() {
+        if (size == 0) {
+            return null;
+        }
+        URLScore bottom = removeAt(minIndex());
+        index.remove(bottom.getCrawlURL());
+        return bottom;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public List<URLScore> pendingEntries() {
+        return new ArrayList<URLScore>(Arrays.asList(heap).subList(0, size));
+    }
+
+    private void evict(URLScore urlScore) {
+        index.remove(urlScore.getCrawlURL());
+        numEvicted ++;
+    }
+
+    private int minIndex() {
+        return 0;
+    }
+
+    private int maxIndex() {
+        if (size <= 2) {
+            return size - 1;
+        }
+        return heap[1].getScore() >= heap[2].getScore() ? 1 : 2;
+    }
+
+    private URLScore removeAt(int i) {
+        URLScore removed = heap[i];
+        size --;
+        if (i < size) {
+            place(heap[size], i);
+            heap[size] = null;
+            bubbleUp(trickleDown(i));
+        } else {
+            heap[size] = null;
+        }
+        removed.heapIndex = -1;
+        return removed;
+    }
+
+    private static boolean isMinLevel(int i) {
+        //level of node i is floor(log2(i + 1))
+        return ((31 - Integer.numberOfLeadingZeros(i + 1)) & 1) == 0;
+    }
+
+    private boolean outranks(int i, int j, boolean minLevel) {
+        return minLevel ? heap[i].getScore() < heap[j].getScore()
+                        : heap[i].getScore() > heap[j].getScore();
+    }
+
+    private void bubbleUp(int i) {
+        if (i == 0) {
+            return;
+        }
+        int parent = (i - 1) >>> 1;
+        boolean minLevel = isMinLevel(i);
+        //a node that belongs on the other kind of level swaps with its parent first
+        if (outranks(i, parent, !minLevel)) {
+            swap(i, parent);
+            bubbleUpGrandparents(parent, !minLevel);
+        } else {
+            bubbleUpGrandparents(i, minLevel);
+        }
+    }
+
+    private void bubbleUpGrandparents(int i, boolean minLevel) {
+        while (i > 2) {
+            int grandparent = (((i - 1) >>> 1) - 1) >>> 1;
+            if (!outranks(i, grandparent, minLevel)) {
+                break;
+            }
+            swap(i, grandparent);
+            i = grandparent;
+        }
+    }
+
+    /**
+     * Pushes node i down to its place among its descendants and returns
+     * the index it ends up at
+     */
+    private int trickleDown(int i) {
+        boolean minLevel = isMinLevel(i);
+        while (true) {
+            int firstChild = (2 * i) + 1;
+            if (firstChild >= size) {
+                return i;
+            }
+            //best of children and grandchildren for this level
+            int m = firstChild;
+            int[] candidates = {firstChild + 1, (2 * firstChild) + 1, (2 * firstChild) + 2,
+                                (2 * (firstChild + 1)) + 1, (2 * (firstChild + 1)) + 2};
+            for (int c : candidates) {
+                if (c < size && outranks(c, m, minLevel)) {
+                    m = c;
+                }
+            }
+            if (!outranks(m, i, minLevel)) {
+                return i;
+            }
+            swap(m, i);
+            if (m <= firstChild + 1) {
+                //m was a child: it now sits on the other kind of level, and stops there
+                return m;
+            }
+            int parentOfM = (m - 1) >>> 1;
+            if (outranks(parentOfM, m, minLevel)) {
+                swap(m, parentOfM);
+            }
+            i = m;
+        }
+    }
+
+    private void swap(int i, int j) {
+        URLScore tmp = heap[i];
+        place(heap[j], i);
+        place(tmp, j);
+    }
+
+    private void place(URLScore urlScore, int i) {
+        heap[i] = urlScore;
+        urlScore.heapIndex = i;
+    }
+}
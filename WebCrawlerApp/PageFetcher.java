@@ -0,0 +1,27 @@
+package WebCrawlerApp;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Downloads pages for the crawler. The returned future completes with the
+ * response, whatever its status code, or exceptionally with an IOException
+ * if no response was received.
+ */
+public interface PageFetcher {
+    /**
+     * requestHeaders are sent in addition to the fetcher's own, e.g. for
+     * a conditional GET. Unless policy is null, a body it rejects as not
+     * HTML is abandoned unread and the page marked rejected.
+     */
+    CompletableFuture<FetchedPage> fetch(URL url, Map<String, String> requestHeaders, ContentTypePolicy policy);
+
+    /**
+     * True if fetch returns without waiting for the response, so callers
+     * need not give each request its own thread
+     */
+    boolean isAsync();
+
+    void close();
+}
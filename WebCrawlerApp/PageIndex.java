@@ -0,0 +1,91 @@
+package WebCrawlerApp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Content-addressed index of the pages saved in the -docs directory.
+ * Records, for every downloaded URL, the SHA-256 of its body and the file
+ * holding that body, so a body that has already been saved under another
+ * URL is not written again. The index is kept in pages.idx in the same
+ * directory, one "hash TAB file TAB url" line per page, flushed as it is
+ * recorded, and reloaded on the next run.
+ */
+public class PageIndex {
+    public static final String INDEX_FILE_NAME = "pages.idx";
+
+    private Map<String, String> fileByHash;
+    private Map<String, String> hashByFile;
+    private Map<String, String> fileByUrl;
+    private Map<String, String> hashByUrl;
+    private BufferedWriter indexWriter;
+
+    public PageIndex(File docsDir) throws IOException {
+        fileByHash = new HashMap<String, String>();
+        hashByFile = new HashMap<String, String>();
+        fileByUrl = new HashMap<String, String>();
+        hashByUrl = new HashMap<String, String>();
+        File indexFile = new File(docsDir, INDEX_FILE_NAME);
+        if (indexFile.isFile()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 3);
+                    if (fields.length == 3) {
+                        remember(fields[0], fields[1], fields[2]);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        indexWriter = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(indexFile, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Name of the saved file whose body has this hash, or null
+     */
+    public synchronized String fileForHash(String contentHash) {
+        return fileByHash.get(contentHash);
+    }
+
+    /**
+     * Name of the saved file holding the body last downloaded for url, or
+     * null, including when that file has since been overwritten by a page
+     * with the same file name
+     */
+    public synchronized String fileForUrl(String url) {
+        String fileName = fileByUrl.get(url);
+        if (fileName == null || !hashByUrl.get(url).equals(hashByFile.get(fileName))) {
+            return null;
+        }
+        return fileName;
+    }
+
+    public synchronized void record(String contentHash, String fileName, String url) throws IOException {
+        remember(contentHash, fileName, url);
+        indexWriter.write(contentHash + "\t" + fileName + "\t" + url);
+        indexWriter.newLine();
+        //a lost line could leave an overwritten file indexed under its old body
+        indexWriter.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        indexWriter.close();
+    }
+
+    private void remember(String contentHash, String fileName, String url) {
+        //the file may have held a different body before being overwritten
+        String previousHash = hashByFile.put(fileName, contentHash);
+        if (previousHash != null && !previousHash.equals(contentHash)) {
+            fileByHash.remove(previousHash);
+        }
+        fileByHash.put(contentHash, fileName);
+        fileByUrl.put(url, fileName);
+        hashByUrl.put(url, contentHash);
+    }
+}
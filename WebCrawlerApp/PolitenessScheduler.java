@@ -0,0 +1,284 @@
+package WebCrawlerApp;
+
+import java.util.*;
+
+/**
+ * Mercator-style frontier that spreads fetches across hosts.
+ *
+ * New URLs go to front queues, one FIFO per score band. Before each poll
+ * the front queues are drained, best band first, into per-host back
+ * queues (an IndexedURLHeap each), with at most maxActiveHosts back queues
+ * open at a time. A back queue is either ready, i.e. its host may be
+ * fetched now, or waiting on a min-heap keyed by the host's next allowed
+ * fetch time. poll() returns the best URL among ready hosts and then parks
+ * that host for delayMillis. When no host is ready it sleeps until one is,
+ * or, if not blocking, returns null.
+ *
+ * A URL whose score rises past its band gets a new slot in the new band;
+ * the slot left in the old band has an older generation and is skipped
+ * when it reaches the front. Front queues are compacted once stale slots
+ * outnumber live ones.
+ */
+public class PolitenessScheduler implements URLFrontier {
+    private static final int BAND_WIDTH = 10;
+    private static final int NUM_BANDS = 16;
+    private static final double STALE_RATIO = 1.0;
+    private static final int MIN_COMPACT_SLOTS = 1024;
+
+    private List<ArrayDeque<FrontierSlot>> frontQueues;
+    //live entries in the front queues, and slots (live plus stale) holding them
+    private int numInFront;
+    private int numFrontSlots;
+    private Map<CrawlURL, URLScore> index;
+    private Map<String, HostQueue> activeHosts;
+    //hosts whose back queue has been retired, and when they may next be fetched
+    private Map<String, Long> retiredHostTimes;
+    private PriorityQueue<HostQueue> waitingHosts;
+    private PriorityQueue<HostQueue> readyHosts;
+    private int maxActiveHosts;
+    private long delayMillis;
+    private boolean blocking;
+
+    public PolitenessScheduler(int maxActiveHosts, long delayMillis) {
+        this(maxActiveHosts, delayMillis, true);
+    }
+
+    public PolitenessScheduler(int maxActiveHosts, long delayMillis, boolean blocking) {
+        if (maxActiveHosts < 1) {
+            throw new IllegalArgumentException("Need at least one back queue: " + maxActiveHosts);
+        }
+        this.maxActiveHosts = maxActiveHosts;
+        this.delayMillis = delayMillis;
+        this.blocking = blocking;
+        frontQueues = new ArrayList<ArrayDeque<FrontierSlot>>();
+        for (int i = 0; i < NUM_BANDS; i ++) {
+            frontQueues.add(new ArrayDeque<FrontierSlot>());
+        }
+        index = new HashMap<CrawlURL, URLScore>();
+        activeHosts = new HashMap<String, HostQueue>();
+        retiredHostTimes = new HashMap<String, Long>();
+        waitingHosts = new PriorityQueue<HostQueue>(16, new Comparator<HostQueue>() {
+            public int compare(HostQueue h1, HostQueue h2) {
+                return Long.compare(h1.nextFetchTime, h2.nextFetchTime);
+            }
+        });
+        readyHosts = new PriorityQueue<HostQueue>(16, new Comparator<HostQueue>() {
+            public int compare(HostQueue h1, HostQueue h2) {
+                return Integer.compare(h2.readyScore, h1.readyScore);
+            }
+        });
+    }
+
+    public URLScore get(CrawlURL url) {
+        return index.get(url);
+    }
+
+    public void add(URLScore urlScore) {
+        CrawlURL key = urlScore.getCrawlURL();
+        if (index.containsKey(key)) {
+            throw new IllegalArgumentException("Already queued: " + key);
+        }
+        index.put(key, urlScore);
+        frontQueues.get(bandOf(urlScore.getScore())).addLast(new FrontierSlot(urlScore));
+        numInFront ++;
+        numFrontSlots ++;
+    }
+
+    public void increaseScore(URLScore urlScore, int delta) {
+        if (index.get(urlScore.getCrawlURL()) != urlScore) {
+            throw new IllegalArgumentException("Not queued: " + urlScore.getURLAsString());
+        }
+        HostQueue hostQueue = routedTo(urlScore);
+        if (hostQueue != null) {
+            hostQueue.urls.increaseScore(urlScore, delta);
+            reposition(hostQueue);
+            return;
+        }
+        int oldBand = bandOf(urlScore.getScore());
+        urlScore.updateScore(urlScore.getScore() + delta);
+        int newBand = bandOf(urlScore.getScore());
+        if (newBand != oldBand) {
+            frontQueues.get(newBand).addLast(new FrontierSlot(urlScore));
+            numFrontSlots ++;
+            if (numFrontSlots - numInFront > STALE_RATIO * Math.max(numInFront, MIN_COMPACT_SLOTS)) {
+                compactFrontQueues();
+            }
+        }
+    }
+
+    public URLScore poll() {
+        fillBackQueues();
+        if (activeHosts.isEmpty()) {
+            return null;
+        }
+        promoteReadyHosts();
+        if (readyHosts.isEmpty() && !blocking) {
+            return null;
+        }
+        while (readyHosts.isEmpty()) {
+            long waitMillis = waitingHosts.peek().nextFetchTime - System.currentTimeMillis();
+            if (waitMillis > 0) {
+                try {
+                    Thread.sleep(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            promoteReadyHosts();
+        }
+        HostQueue hostQueue = readyHosts.poll();
+        hostQueue.ready = false;
+        URLScore next = hostQueue.urls.poll();
+        index.remove(next.getCrawlURL());
+        hostQueue.nextFetchTime = System.currentTimeMillis() + delayMillis;
+        if (hostQueue.urls.isEmpty()) {
+            activeHosts.remove(hostQueue.host);
+            retiredHostTimes.put(hostQueue.host, hostQueue.nextFetchTime);
+            if (retiredHostTimes.size() > 4 * maxActiveHosts) {
+                forgetExpiredHosts();
+            }
+        } else {
+            waitingHosts.add(hostQueue);
+        }
+        return next;
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public List<URLScore> pendingEntries() {
+        return new ArrayList<URLScore>(index.values());
+    }
+
+    private static int bandOf(int score) {
+        return Math.min(Math.max(score, 0) / BAND_WIDTH, NUM_BANDS - 1);
+    }
+
+    private static String hostOf(URLScore urlScore) {
+        return urlScore.getCrawlURL().getHost();
+    }
+
+    private HostQueue routedTo(URLScore urlScore) {
+        HostQueue hostQueue = activeHosts.get(hostOf(urlScore));
+        if (hostQueue != null && hostQueue.urls.get(urlScore.getCrawlURL()) == urlScore) {
+            return hostQueue;
+        }
+        return null;
+    }
+
+    private boolean isLiveInFront(FrontierSlot slot) {
+        return slot.isCurrent() && index.get(slot.entry.getCrawlURL()) == slot.entry;
+    }
+
+    /**
+     * Drops every stale front queue slot, keeping FIFO order within each band
+     */
+    private void compactFrontQueues() {
+        for (int band = 0; band < NUM_BANDS; band ++) {
+            ArrayDeque<FrontierSlot> liveSlots = new ArrayDeque<FrontierSlot>();
+            for (FrontierSlot slot : frontQueues.get(band)) {
+                if (isLiveInFront(slot)) {
+                    liveSlots.addLast(slot);
+                }
+            }
+            frontQueues.set(band, liveSlots);
+        }
+        numFrontSlots = numInFront;
+    }
+
+    /**
+     * Moves URLs from the front queues to their hosts' back queues, best
+     * band first, stopping at the first URL whose host has no back queue
+     * once maxActiveHosts back queues are open.
+     */
+    private void fillBackQueues() {
+        for (int band = NUM_BANDS - 1; band >= 0; band --) {
+            ArrayDeque<FrontierSlot> frontQueue = frontQueues.get(band);
+            while (!frontQueue.isEmpty()) {
+                FrontierSlot headSlot = frontQueue.peekFirst();
+                if (!isLiveInFront(headSlot)) {
+                    frontQueue.pollFirst();
+                    numFrontSlots --;
+                    continue;
+                }
+                URLScore head = headSlot.entry;
+                String host = hostOf(head);
+                HostQueue hostQueue = activeHosts.get(host);
+                if (hostQueue == null) {
+                    if (activeHosts.size() >= maxActiveHosts) {
+                        return;
+                    }
+                    hostQueue = new HostQueue(host);
+                    Long retiredTime = retiredHostTimes.remove(host);
+                    hostQueue.nextFetchTime = (retiredTime == null) ? 0 : retiredTime;
+                    activeHosts.put(host, hostQueue);
+                    waitingHosts.add(hostQueue);
+                }
+                frontQueue.pollFirst();
+                numFrontSlots --;
+                numInFront --;
+                //no longer in the front queues; retire any older slots
+                head.generation ++;
+                hostQueue.urls.add(head);
+                reposition(hostQueue);
+            }
+        }
+    }
+
+    private void promoteReadyHosts() {
+        long now = System.currentTimeMillis();
+        while (!waitingHosts.isEmpty() && waitingHosts.peek().nextFetchTime <= now) {
+            HostQueue hostQueue = waitingHosts.poll();
+            hostQueue.ready = true;
+            hostQueue.readyScore = hostQueue.urls.peek().getScore();
+            readyHosts.add(hostQueue);
+        }
+    }
+
+    private void forgetExpiredHosts() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = retiredHostTimes.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Re-sorts a ready host after the best score in its back queue changed
+     */
+    private void reposition(HostQueue hostQueue) {
+        if (!hostQueue.ready) {
+            return;
+        }
+        int topScore = hostQueue.urls.peek().getScore();
+        if (topScore != hostQueue.readyScore) {
+            readyHosts.remove(hostQueue);
+            hostQueue.readyScore = topScore;
+            readyHosts.add(hostQueue);
+        }
+    }
+
+    /**
+     * Back queue holding the routed URLs of one host
+     */
+    private static class HostQueue {
+        private String host;
+        private IndexedURLHeap urls;
+        private long nextFetchTime;
+        private boolean ready;
+        private int readyScore;
+
+        HostQueue(String host) {
+            this.host = host;
+            urls = new IndexedURLHeap();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package WebCrawlerApp;
+
+import java.io.EOFException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pages whose fetch failed in a way that may pass, waiting to be fetched
+ * again. Each failure class has its own base delay, doubled with each
+ * further failure of the page and jittered so that pages failing together
+ * are not retried together; a page is given up after maxRetries retries.
+ *
+ * Pages wait on a hashed timer wheel of NUM_SLOTS slots, TICK_MILLIS
+ * apart, so scheduling and taking due pages cost the same however many
+ * are waiting. Due pages are handed straight back to the crawl loop and
+ * never go through the frontier.
+ */
+public class RetryQueue {
+    private static final long TICK_MILLIS = 100;
+    private static final int NUM_SLOTS = 512;
+    private static final long MAX_DELAY_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * What went wrong with a fetch worth retrying
+     */
+    public enum FailureClass {
+        DNS(10000), CONNECT(2000), SERVER(5000), TIMEOUT(10000);
+
+        private long baseDelayMillis;
+
+        FailureClass(long baseDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+        }
+    }
+
+    private static class Entry {
+        private URLScore page;
+        private long dueTick;
+
+        Entry(URLScore page, long dueTick) {
+            this.page = page;
+            this.dueTick = dueTick;
+        }
+    }
+
+    private int maxRetries;
+    private List<List<Entry>> slots;
+    //first tick not yet swept
+    private long currentTick;
+    private Deque<URLScore> due = new ArrayDeque<URLScore>();
+    private int numWaiting;
+    //failures so far of pages retried and not yet fetched
+    private Map<Long, Integer> numFailuresByUrl = new HashMap<Long, Integer>();
+
+    private long[] numRetriesByClass = new long[FailureClass.values().length];
+    private long numRecovered;
+    private long numAbandoned;
+
+    public RetryQueue(int maxRetries) {
+        this.maxRetries = maxRetries;
+        slots = new ArrayList<List<Entry>>(NUM_SLOTS);
+        for (int i = 0; i < NUM_SLOTS; i ++) {
+            slots.add(new ArrayList<Entry>());
+        }
+        currentTick = tickOf(System.currentTimeMillis());
+    }
+
+    /**
+     * The class of a failed fetch, given its status code or the failure it
+     * completed with; null if retrying would not help, or it succeeded
+     */
+    public static FailureClass classify(int statusCode, Throwable failure) {
+        if (failure == null) {
+            return (statusCode >= 500 || statusCode == 429) ? FailureClass.SERVER : null;
+        }
+        Throwable cause = (failure instanceof CompletionException && failure.getCause() != null)
+            ? failure.getCause() : failure;
+        if (cause instanceof UnknownHostException) {
+            return FailureClass.DNS;
+        }
+        if (cause instanceof SocketTimeoutException || cause instanceof HttpTimeoutException) {
+            return FailureClass.TIMEOUT;
+        }
+        //refused, unreachable or reset (all SocketExceptions), or closed mid-response;
+        //other IOExceptions, such as a body that cannot be decoded, would fail again
+        if (cause instanceof SocketException || cause instanceof EOFException) {
+            return FailureClass.CONNECT;
+        }
+        return null;
+    }
+
+    /**
+     * Schedules page to be fetched again after a failure, no sooner than
+     * minDelayMillis; returns the delay, or -1 if the page is out of retries
+     */
+    public synchronized long schedule(URLScore page, FailureClass failure, long minDelayMillis) {
+        long fingerprint = page.getCrawlURL().fingerprint();
+        Integer numFailures = numFailuresByUrl.get(fingerprint);
+        int attempt = (numFailures == null) ? 1 : numFailures + 1;
+        if (attempt > maxRetries) {
+            numFailuresByUrl.remove(fingerprint);
+            numAbandoned ++;
+            return -1;
+        }
+        numFailuresByUrl.put(fingerprint, attempt);
+        numRetriesByClass[failure.ordinal()] ++;
+        long backoff = Math.min(MAX_DELAY_MILLIS, failure.baseDelayMillis << (attempt - 1));
+        //half fixed, half random
+        long delayMillis = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        delayMillis = Math.max(delayMillis, Math.min(minDelayMillis, MAX_DELAY_MILLIS));
+        add(page, delayMillis);
+        return delayMillis;
+    }
+
+    /**
+     * Puts a page taken by pollDue back for delayMillis, as another try
+     * of the same retry
+     */
+    public synchronized void delay(URLScore page, long delayMillis) {
+        add(page, delayMillis);
+    }
+
+    /**
+     * Notes that page was fetched, so a retry of it has recovered
+     */
+    public synchronized void succeeded(URLScore page) {
+        if (!numFailuresByUrl.isEmpty() && numFailuresByUrl.remove(page.getCrawlURL().fingerprint()) != null) {
+            numRecovered ++;
+        }
+    }
+
+    /**
+     * A page whose retry is due, or null if none is
+     */
+    public synchronized URLScore pollDue() {
+        if (due.isEmpty() && numWaiting > 0) {
+            sweep(tickOf(System.currentTimeMillis()));
+        }
+        return due.poll();
+    }
+
+    /**
+     * Pages waiting to be retried, due or not
+     */
+    public synchronized int size() {
+        return numWaiting + due.size();
+    }
+
+    /**
+     * The pages waiting to be retried, due or not
+     */
+    public synchronized List<URLScore> waitingPages() {
+        List<URLScore> pages = new ArrayList<URLScore>(size());
+        for (List<Entry> slot : slots) {
+            for (Entry entry : slot) {
+                pages.add(entry.page);
+            }
+        }
+        pages.addAll(due);
+        return pages;
+    }
+
+    public synchronized void printStats() {
+        StringBuilder retried = new StringBuilder();
+        for (FailureClass failure : FailureClass.values()) {
+            retried.append(retried.length() == 0 ? "" : ", ")
+                .append(numRetriesByClass[failure.ordinal()]).append(" ").append(failure.name());
+        }
+        System.out.println("Retries: " + retried + "; " + numRecovered + " pages recovered, "
+            + numAbandoned + " given up after " + maxRetries + " retries");
+    }
+
+    private void add(URLScore page, long delayMillis) {
+        long dueTick = Math.max(currentTick, tickOf(System.currentTimeMillis() + delayMillis));
+        slots.get((int) (dueTick % NUM_SLOTS)).add(new Entry(page, dueTick));
+        numWaiting ++;
+    }
+
+    /**
+     * Moves the pages due by nowTick to due
+     */
+    private void sweep(long nowTick) {
+        //after a full turn every slot has been looked at
+        long lastTick = Math.min(nowTick, currentTick + NUM_SLOTS - 1);
+        for (long tick = currentTick; tick <= lastTick; tick ++) {
+            Iterator<Entry> it = slots.get((int) (tick % NUM_SLOTS)).iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                //entries a turn or more away stay put
+                if (entry.dueTick <= nowTick) {
+                    it.remove();
+                    numWaiting --;
+                    due.add(entry.page);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick + 1);
+    }
+
+    private static long tickOf(long millis) {
+        return millis / TICK_MILLIS;
+    }
+}
@@ -0,0 +1,90 @@
+package WebCrawlerApp;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * robots.txt rules per host, fetched once through the crawler's
+ * PageFetcher and kept for the most recently used MAX_HOSTS hosts.
+ * Concurrent lookups for a host share one request.
+ */
+public class RobotsCache {
+    public static final String DISALLOW = "Disallow:";
+    private static final int MAX_HOSTS = 10000;
+
+    private PageFetcher fetcher;
+    private Map<String, CompletableFuture<String>> rulesByHost;
+
+    public RobotsCache(PageFetcher fetcher) {
+        this.fetcher = fetcher;
+        rulesByHost = new LinkedHashMap<String, CompletableFuture<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<String>> eldest) {
+                return size() > MAX_HOSTS;
+            }
+        };
+    }
+
+    /**
+     * Completes with whether robots.txt lets us crawl url
+     */
+    public CompletableFuture<Boolean> isAllowed(final URL url) {
+        return rulesFor(url.getHost()).thenApply(new Function<String, Boolean>() {
+            public Boolean apply(String rules) {
+                return isAllowed(rules, url.getFile());
+            }
+        });
+    }
+
+    private synchronized CompletableFuture<String> rulesFor(String host) {
+        CompletableFuture<String> rules = rulesByHost.get(host);
+        if (rules == null) {
+            rules = fetchRules(host);
+            rulesByHost.put(host, rules);
+        }
+        return rules;
+    }
+
+    private CompletableFuture<String> fetchRules(String host) {
+        URL urlRobot;
+        //try to create robots.txt URL
+        try {
+            urlRobot = new URL("http://" + host + "/robots.txt");
+        } catch (MalformedURLException e) {
+            //something weird is happening; don't trust it
+            return CompletableFuture.completedFuture(DISALLOW + " /");
+        }
+        return fetcher.fetch(urlRobot, Collections.<String, String>emptyMap(), null).handle(new BiFunction<FetchedPage, Throwable, String>() {
+            public String apply(FetchedPage page, Throwable failure) {
+                if (failure != null || !page.isSuccess()) {
+                    //no robots.txt file; OK to search
+                    return "";
+                }
+                return page.getText();
+            }
+        });
+    }
+
+    static boolean isAllowed(String strCommands, String strFileUrl) {
+        int index = 0;
+        //check each disallow statement to see if it's for this page (using getFile())
+        while ((index = strCommands.indexOf(DISALLOW, index)) != -1) {
+            index += DISALLOW.length();
+            String strPath = strCommands.substring(index);
+            StringTokenizer st = new StringTokenizer(strPath);
+
+            if (!st.hasMoreTokens()) {
+                break;
+            }
+            //get first token
+            String strDisallowed = st.nextToken();
+            if (strFileUrl.indexOf(strDisallowed) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,360 @@
+package WebCrawlerApp;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Two-tier frontier for crawls whose frontier does not fit on the heap.
+ * The top of the frontier lives in a bounded in-memory MinMaxURLHeap
+ * (the hot set). Once it is full, a new URL displaces the lowest-scored
+ * hot URL if it scores higher, and whichever of the two scores lower is
+ * appended to an on-disk overflow segment, one per score band, so the hot
+ * set keeps the best URLs found so far. When the hot set
+ * drains, it is refilled from the highest non-empty band by memory-mapping
+ * the unread part of that segment, so heap usage is bounded by the hot
+ * set size however many outlinks have been discovered.
+ *
+ * Spilled URLs are not addressable: a URL found again while it is on disk
+ * is spilled again with the new partial score, and the partial scores are
+ * summed when the copies meet in the hot set during refill.
+ *
+ * Segment record format: int score, int length, UTF-8 url bytes, the
+ * same as CrawlCheckpoint's, which copies spilled records without
+ * decoding them (see spilledRecords).
+ */
+public class SpillingURLFrontier implements URLFrontier {
+    private static final int BAND_WIDTH = 10;
+    private static final int NUM_BANDS = 64;
+    private static final int MAP_CHUNK = 64 * 1024 * 1024;
+
+    private MinMaxURLHeap hotSet;
+    private int hotCapacity;
+    private SpillSegment[] segments;
+    private long numSpilled;
+
+    public SpillingURLFrontier(int hotCapacity, File spillDir) throws IOException {
+        if (hotCapacity < 1) {
+            throw new IllegalArgumentException("Hot set capacity must be positive: " + hotCapacity);
+        }
+        if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+            throw new IOException("Could not create spill directory " + spillDir);
+        }
+        this.hotCapacity = hotCapacity;
+        //never left to evict on its own: add spills before it would
+        hotSet = new MinMaxURLHeap(hotCapacity);
+        segments = new SpillSegment[NUM_BANDS];
+        for (int i = 0; i < NUM_BANDS; i ++) {
+            segments[i] = new SpillSegment(new File(spillDir, "band-" + i + ".seg"));
+        }
+        numSpilled = 0;
+    }
+
+    public URLScore get(CrawlURL url) {
+        return hotSet.get(url);
+    }
+
+    public void add(URLScore urlScore) {
+        if (hotSet.size() < hotCapacity) {
+            hotSet.add(urlScore);
+            return;
+        }
+        if (urlScore.getScore() > hotSet.minScore()) {
+            URLScore displaced = hotSet.pollMin();
+            hotSet.add(urlScore);
+            urlScore = displaced;
+        }
+        spill(urlScore);
+    }
+
+    private void spill(URLScore urlScore) {
+        try {
+            segments[bandOf(urlScore.getScore())].append(urlScore);
+            numSpilled ++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not spill " + urlScore.getURLAsString(), e);
+        }
+    }
+
+    public void increaseScore(URLScore urlScore, int delta) {
+        hotSet.increaseScore(urlScore, delta);
+    }
+
+    public URLScore poll() {
+        if (hotSet.isEmpty() && numSpilled > 0) {
+            try {
+                refill();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not refill frontier from disk", e);
+            }
+        }
+        return hotSet.poll();
+    }
+
+    public boolean isEmpty() {
+        return hotSet.isEmpty() && numSpilled == 0;
+    }
+
+    /**
+     * Number of queued entries; spilled duplicates are counted separately
+     */
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, hotSet.size() + numSpilled);
+    }
+
+    /**
+     * Includes the spilled entries, decoded from the overflow segments
+     */
+    public List<URLScore> pendingEntries() {
+        List<URLScore> entries = hotSet.pendingEntries();
+        try {
+            for (SpillSegment segment : segments) {
+                segment.readAll(entries);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read frontier segments", e);
+        }
+        return entries;
+    }
+
+    /**
+     * The hot set's entries only; see spilledRecords for the rest
+     */
+    public List<URLScore> hotEntries() {
+        return hotSet.pendingEntries();
+    }
+
+    /**
+     * The spilled records not yet read back, as open channels onto the
+     * bytes written so far. A segment that is drained meanwhile is
+     * unlinked, not truncated, so the records can be copied on another
+     * thread while the frontier carries on. The caller closes the channels.
+     */
+    public List<SpilledRecords> spilledRecords() throws IOException {
+        List<SpilledRecords> spilled = new ArrayList<SpilledRecords>();
+        for (SpillSegment segment : segments) {
+            if (segment.pending == 0) {
+                continue;
+            }
+            segment.out.flush();
+            FileChannel channel = new RandomAccessFile(segment.file, "r").getChannel();
+            spilled.add(new SpilledRecords(channel, segment.readOffset,
+                channel.size() - segment.readOffset, segment.pending));
+        }
+        return spilled;
+    }
+
+    /**
+     * A run of records in segment format
+     */
+    public static class SpilledRecords {
+        private FileChannel channel;
+        private long offset;
+        private long length;
+        private long numRecords;
+
+        SpilledRecords(FileChannel channel, long offset, long length, long numRecords) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+            this.numRecords = numRecords;
+        }
+
+        public long getNumRecords() {
+            return numRecords;
+        }
+
+        /**
+         * Copies the records to out and closes the channel
+         */
+        public void transferTo(FileChannel out) throws IOException {
+            try {
+                long position = offset;
+                long end = offset + length;
+                while (position < end) {
+                    position += channel.transferTo(position, end - position, out);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static int bandOf(int score) {
+        return Math.min(Math.max(score, 0) / BAND_WIDTH, NUM_BANDS - 1);
+    }
+
+    private void refill() throws IOException {
+        for (int band = NUM_BANDS - 1; band >= 0 && hotSet.size() < hotCapacity; band --) {
+            SpillSegment segment = segments[band];
+            while (segment.pending > 0 && hotSet.size() < hotCapacity) {
+                long numRead = segment.readInto(hotSet, hotCapacity);
+                if (numRead == 0) {
+                    //truncated or corrupt; would never drain
+                    numSpilled -= segment.discard();
+                    break;
+                }
+                numSpilled -= numRead;
+            }
+            if (!hotSet.isEmpty()) {
+                //only pull in lower bands once the better ones are used up
+                return;
+            }
+        }
+    }
+
+    /**
+     * Append-only overflow file for one score band, read back in order
+     */
+    private static class SpillSegment {
+        private File file;
+        private DataOutputStream out;
+        private long readOffset;
+        private long pending;
+
+        SpillSegment(File file) {
+            this.file = file;
+            file.deleteOnExit();
+            readOffset = 0;
+            pending = 0;
+        }
+
+        void append(URLScore urlScore) throws IOException {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file, true), 8192));
+            }
+            byte[] urlBytes = urlScore.getURLAsString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(urlScore.getScore());
+            out.writeInt(urlBytes.length);
+            out.write(urlBytes);
+            pending ++;
+        }
+
+        /**
+         * Moves records into hotSet until it holds capacity entries or one
+         * mapped chunk is consumed; returns the number of records read.
+         */
+        long readInto(MinMaxURLHeap hotSet, int capacity) throws IOException {
+            out.flush();
+            long numRead = 0;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long length = Math.min(channel.size() - readOffset, MAP_CHUNK);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, readOffset, length);
+                while (hotSet.size() < capacity && buf.remaining() >= 8) {
+                    int start = buf.position();
+                    int score = buf.getInt();
+                    int len = buf.getInt();
+                    if (buf.remaining() < len) {
+                        //record straddles the chunk end; pick it up on the next map
+                        buf.position(start);
+                        break;
+                    }
+                    byte[] urlBytes = new byte[len];
+                    buf.get(urlBytes);
+                    numRead ++;
+                    merge(hotSet, new String(urlBytes, StandardCharsets.UTF_8), score);
+                }
+                readOffset += buf.position();
+            } finally {
+                raf.close();
+            }
+            pending -= numRead;
+            if (pending == 0) {
+                //fully drained; start the segment over
+                reset();
+            }
+            return numRead;
+        }
+
+        /**
+         * Drops the unread records, which cannot be read back; returns how
+         * many there were
+         */
+        long discard() throws IOException {
+            long numDropped = pending;
+            System.out.println("Dropping " + numDropped + " unreadable spilled URLs from " + file);
+            pending = 0;
+            reset();
+            return numDropped;
+        }
+
+        private void reset() throws IOException {
+            out.close();
+            out = null;
+            //unlinked rather than truncated: a checkpoint may still be copying it
+            Files.deleteIfExists(file.toPath());
+            readOffset = 0;
+        }
+
+        /**
+         * Decodes the unread records without consuming them
+         */
+        void readAll(List<URLScore> entries) throws IOException {
+            if (pending == 0) {
+                return;
+            }
+            out.flush();
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long offset = readOffset;
+                while (offset < channel.size()) {
+                    long length = Math.min(channel.size() - offset, MAP_CHUNK);
+                    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                    while (buf.remaining() >= 8) {
+                        int start = buf.position();
+                        int score = buf.getInt();
+                        int len = buf.getInt();
+                        if (buf.remaining() < len) {
+                            buf.position(start);
+                            break;
+                        }
+                        byte[] urlBytes = new byte[len];
+                        buf.get(urlBytes);
+                        try {
+                            URLScore urlScore = new URLScore(
+                                CrawlURL.parse(new String(urlBytes, StandardCharsets.UTF_8)));
+                            urlScore.updateScore(score);
+                            entries.add(urlScore);
+                        } catch (MalformedURLException e) {
+                            //dropped on refill as well
+                        }
+                    }
+                    offset += buf.position();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        private static void merge(MinMaxURLHeap hotSet, String urlStr, int score) {
+            CrawlURL url;
+            try {
+                url = CrawlURL.parse(urlStr);
+            } catch (MalformedURLException e) {
+                //was a valid URL when spilled; nothing sensible to do but drop it
+                return;
+            }
+            URLScore existing = hotSet.get(url);
+            if (existing != null) {
+                hotSet.increaseScore(existing, score);
+                return;
+            }
+            URLScore urlScore = new URLScore(url);
+            urlScore.updateScore(score);
+            hotSet.add(urlScore);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package WebCrawlerApp;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Blocking fetcher on java.net.URLConnection: fetch does the whole request
+ * on the calling thread and returns an already completed future. An HTTP
+ * request over its deadline is aborted by disconnecting it, which fails
+ * the blocked read.
+ */
+public class URLConnectionFetcher implements PageFetcher {
+    private BodyReader bodyReader;
+    private FetchDeadlines deadlines;
+
+    public URLConnectionFetcher(BodyReader bodyReader, FetchDeadlines deadlines) {
+        this.bodyReader = bodyReader;
+        this.deadlines = deadlines;
+    }
+
+    public CompletableFuture<FetchedPage> fetch(URL url, Map<String, String> requestHeaders, ContentTypePolicy policy) {
+        CompletableFuture<FetchedPage> result = new CompletableFuture<FetchedPage>();
+        try {
+            result.complete(download(url, requestHeaders, policy));
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    public boolean isAsync() {
+        return false;
+    }
+
+    public void close() {
+    }
+
+    private FetchedPage download(URL url, Map<String, String> requestHeaders, ContentTypePolicy policy)
+            throws IOException {
+        final URLConnection urlConnection = url.openConnection();
+        urlConnection.setAllowUserInteraction(false);
+        urlConnection.setConnectTimeout(deadlines.getConnectTimeoutMillis());
+        urlConnection.setReadTimeout(deadlines.getReadTimeoutMillis());
+        urlConnection.setRequestProperty("Accept-Encoding", ContentDecoder.ACCEPTED_ENCODINGS);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        FetchDeadlines.Deadline deadline = deadlines.start(url.toString());
+        if (urlConnection instanceof HttpURLConnection) {
+            deadline.setAbort(new Runnable() {
+                public void run() {
+                    ((HttpURLConnection) urlConnection).disconnect();
+                }
+            });
+        }
+        try {
+            return exchange(url, urlConnection, policy, deadline);
+        } catch (IOException e) {
+            if (deadline.isExpired()) {
+                //report the deadline, not the socket error the abort caused
+                IOException timeout = deadline.failure();
+                timeout.initCause(e);
+                throw timeout;
+            }
+            throw e;
+        } finally {
+            deadline.end();
+        }
+    }
+
+    private FetchedPage exchange(URL url, URLConnection urlConnection, ContentTypePolicy policy,
+            final FetchDeadlines.Deadline deadline) throws IOException {
+        int statusCode = 200;
+        InputStream urlStream;
+        if (urlConnection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
+            statusCode = httpConnection.getResponseCode();
+            urlStream = (statusCode >= 400) ? httpConnection.getErrorStream() : httpConnection.getInputStream();
+        } else {
+            urlStream = urlConnection.getInputStream();
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : urlConnection.getHeaderFields().entrySet()) {
+            //the status line has a null name
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+        }
+        deadline.startBody();
+        BodyReader.Body body = BodyReader.Body.EMPTY;
+        if (urlStream != null) {
+            urlStream = new FilterInputStream(urlStream) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int numBytesRead = super.read(b, off, len);
+                    if (numBytesRead > 0) {
+                        deadline.addBytes(numBytesRead);
+                    }
+                    return numBytesRead;
+                }
+            };
+            try {
+                body = bodyReader.read(urlStream, urlConnection.getContentLengthLong(),
+                    urlConnection.getContentEncoding(), urlConnection.getContentType(), policy);
+                if (body.isRejected() && urlConnection instanceof HttpURLConnection) {
+                    //drop the connection rather than let close() drain the unwanted body
+                    ((HttpURLConnection) urlConnection).disconnect();
+                }
+            } finally {
+                urlStream.close();
+            }
+        }
+        return new FetchedPage(url, statusCode, headers, body);
+    }
+}
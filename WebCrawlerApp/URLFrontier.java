@@ -0,0 +1,37 @@
+package WebCrawlerApp;
+
+import java.util.List;
+
+/**
+ * The set of URLs waiting to be crawled, keyed by CrawlURL.
+ * poll() hands out the pending URL with the highest score; a URL
+ * seen again on a later page has its score raised via increaseScore.
+ */
+public interface URLFrontier {
+
+    /**
+     * Returns the pending entry for url, or null if it is not queued
+     */
+    URLScore get(CrawlURL url);
+
+    /**
+     * Queues a new entry; the URL must not already be queued
+     */
+    void add(URLScore urlScore);
+
+    /**
+     * Adds delta to the score of a queued entry
+     */
+    void increaseScore(URLScore urlScore, int delta);
+
+    URLScore poll();
+
+    boolean isEmpty();
+
+    int size();
+
+    /**
+     * Returns a new list of every pending entry, in no particular order
+     */
+    List<URLScore> pendingEntries();
+}
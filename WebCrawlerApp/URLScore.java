@@ -6,19 +6,31 @@ import java.net.URL;
  * Created by purnima on 3/14/16.
  */
 public class URLScore {
-    private URL url;
+    private CrawlURL url;
     private int score;
+    /**
+     * Slot in the owning IndexedURLHeap or MinMaxURLHeap, -1 while not queued
+     */
+    int heapIndex = -1;
+    /**
+     * Bumped each time a FIFO-based frontier requeues this entry, so that
+     * older FrontierSlots for it can be recognised as stale
+     */
+    int generation = 0;
 
     /**
      * Default score, 0, for any new url-score object
      */
-    public URLScore(URL url) {
+    public URLScore(CrawlURL url) {
         this.url = url;
         score = 0;
     }
-    public URL getURL() {
+    public CrawlURL getCrawlURL() {
         return url;
     }
+    public URL getURL() {
+        return url.toURL();
+    }
     public int getScore() {
         return score;
     }
@@ -41,7 +53,7 @@ public class URLScore {
             return true;
         }
         URLScore otherObject = (URLScore) o;
-        return (otherObject.url.toString().equals(url.toString()));
+        return otherObject.url.equals(url);
     }
 
     public String getURLAsString() {
@@ -0,0 +1,128 @@
+package WebCrawlerApp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * HTTP cache validators (ETag and Last-Modified) of the pages saved in the
+ * -docs directory, so a recrawl can ask the server for only the pages that
+ * changed. Kept in validators.idx in that directory as an append-only log
+ * of "url TAB etag TAB lastModified" lines, where the last line for a URL
+ * wins; the log is rewritten with one line per URL when it is opened with
+ * more than twice as many lines as URLs. Each line is flushed as it is
+ * recorded, so a crawl that is killed keeps what it learned.
+ */
+public class ValidatorStore {
+    public static final String STORE_FILE_NAME = "validators.idx";
+
+    /**
+     * Validators the server sent for a URL; either may be null
+     */
+    public static class Validators {
+        private String etag;
+        private String lastModified;
+
+        public Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private File storeFile;
+    private Map<String, Validators> validatorsByUrl;
+    private BufferedWriter logWriter;
+
+    public ValidatorStore(File docsDir) throws IOException {
+        storeFile = new File(docsDir, STORE_FILE_NAME);
+        validatorsByUrl = new HashMap<String, Validators>();
+        int numLines = 0;
+        if (storeFile.isFile()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(storeFile), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length != 3) {
+                        continue;
+                    }
+                    numLines ++;
+                    if (fields[1].isEmpty() && fields[2].isEmpty()) {
+                        //validators dropped by a later response
+                        validatorsByUrl.remove(fields[0]);
+                    } else {
+                        validatorsByUrl.put(fields[0], new Validators(emptyToNull(fields[1]), emptyToNull(fields[2])));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        if (numLines > 2 * validatorsByUrl.size()) {
+            compact();
+        }
+        logWriter = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(storeFile, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Validators recorded for url, or null
+     */
+    public synchronized Validators get(String url) {
+        return validatorsByUrl.get(url);
+    }
+
+    public synchronized void record(String url, String etag, String lastModified) throws IOException {
+        if (etag == null && lastModified == null) {
+            //nothing to revalidate with next time
+            if (validatorsByUrl.remove(url) != null) {
+                writeLine(url, null, null);
+                logWriter.flush();
+            }
+            return;
+        }
+        validatorsByUrl.put(url, new Validators(etag, lastModified));
+        writeLine(url, etag, lastModified);
+        logWriter.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        logWriter.close();
+    }
+
+    private void writeLine(String url, String etag, String lastModified) throws IOException {
+        logWriter.write(url + "\t" + clean(etag) + "\t" + clean(lastModified));
+        logWriter.newLine();
+    }
+
+    private void compact() throws IOException {
+        File tmpFile = new File(storeFile.getPath() + ".tmp");
+        logWriter = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(tmpFile), StandardCharsets.UTF_8));
+        for (Map.Entry<String, Validators> entry : validatorsByUrl.entrySet()) {
+            writeLine(entry.getKey(), entry.getValue().getETag(), entry.getValue().getLastModified());
+        }
+        logWriter.close();
+        if (!tmpFile.renameTo(storeFile)) {
+            throw new IOException("Could not rename " + tmpFile + " to " + storeFile);
+        }
+    }
+
+    private static String clean(String value) {
+        //header values never legitimately hold tabs or line breaks
+        return (value == null) ? "" : value.replaceAll("[\t\r\n]", " ");
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -5,6 +5,10 @@ import com.beust.jcommander.*;
 import Utilities.*;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.*;
+import java.lang.reflect.Method;
 
 /**
  * Main web-crawler that crawls the links on web pages based on
@@ -13,8 +17,61 @@ import java.util.*;
  */
 public class WebCrawler {
 
-    private PriorityQueue<URLScore> urlsToBeTraversed;
-    private Set<String> seenUrls;
+    private URLFrontier urlsToBeTraversed;
+    private FingerprintSet seenUrls;
+    //null unless -seenFilter bloom
+    private BloomFilteredSet bloomSeenUrls;
+    //URLs crawled by earlier runs; null unless -history is given
+    private PersistentFingerprintStore seenHistory;
+    private long numKnownUrlsSkipped;
+    //recently crawled page fingerprints; null unless -nearDup
+    private SimHashIndex nearDuplicates;
+    private long numNearDuplicatePages;
+    private long numNearDuplicateChars;
+    private PageIndex pageIndex;
+    private long numDuplicateBodies;
+    private long numDuplicateBodyChars;
+    //updated from fetch threads
+    private AtomicLong numTruncatedBodies = new AtomicLong();
+    private AtomicLong numWireBytes = new AtomicLong();
+    private AtomicLong numBodyBytes = new AtomicLong();
+    //null unless -recrawl
+    private ValidatorStore validators;
+    private AtomicLong numNotModified = new AtomicLong();
+    private ContentTypePolicy contentTypes = new ContentTypePolicy();
+    private AtomicLong numRejectedPages = new AtomicLong();
+
+    //concurrent crawl state, see crawlConcurrently
+    private static final int MAX_VIRTUAL_FETCHES = 1024;
+    private static final long POLL_RETRY_MILLIS = 50;
+    private final Object crawlLock = new Object();
+    private Map<String, List<URLScore>> waitingForHost = new HashMap<String, List<URLScore>>();
+    private int numParked;
+    private long nextParkedCheckTime;
+    private int numInFlight;
+    //of numInFlight, pages still being fetched rather than in the pipeline's later stages
+    private int numFetching;
+    private HostRateController rateControl;
+    private FetchDeadlines deadlines;
+    //null unless -retries
+    private RetryQueue retries;
+    //pipelined crawl stages, see crawlConcurrently; null unless -pipeline
+    private static final int STAGE_QUEUE_CAPACITY = 64;
+    private CrawlStage<PageWork> parseStage;
+    private CrawlStage<PageWork> scoreStage;
+    private CrawlStage<PageWork> enqueueStage;
+    private PageFetcher fetcher;
+    private RobotsCache robots;
+    private DnsCache dns;
+    private int numPagesProcessed;
+    private CrawlCheckpoint checkpoint;
+    //numPagesProcessed at the last checkpoint taken
+    private int numPagesAtCheckpoint;
+    //pages marked seen whose links are not queued yet, by fingerprint; a checkpoint saves them as still to crawl
+    private Map<Long, URLScore> pagesInFlight = new HashMap<Long, URLScore>();
+    //set when the frontier is the bounded top-K heap, for budget-aware pruning
+    private MinMaxURLHeap topKFrontier;
+    private long numLinksPruned;
 
     @Parameter(names = "-u", description = "URL to start the crawl")
     private String startingURLStr;
@@ -26,31 +83,209 @@ public class WebCrawler {
     private int maxNumPgs = 50;
     @Parameter(names = "-t", description = "Trace")
     private boolean debug = false;
+    @Parameter(names = "-frontier", description = "Frontier implementation: heap, bucket, spill, polite or topk")
+    private String frontierType = "heap";
+    @Parameter(names = "-topKFactor", description = "Frontier URLs kept per page left in the budget (topk frontier)")
+    private int topKFactor = 50;
+    @Parameter(names = "-hotSize", description = "Max URLs kept in memory by the spill frontier")
+    private int hotSetSize = 100000;
+    @Parameter(names = "-spillDir", description = "Directory for spill frontier overflow segments")
+    private String spillDir;
+    @Parameter(names = "-delay", description = "Min millis between fetches from one host (polite frontier)")
+    private long hostDelayMillis = 1000;
+    @Parameter(names = "-hosts", description = "Max hosts with open back queues (polite frontier)")
+    private int maxActiveHosts = 256;
+    @Parameter(names = "-checkpoint", description = "Directory to checkpoint crawl state to")
+    private String checkpointDir;
+    @Parameter(names = "-checkpointEvery", description = "Pages between checkpoints")
+    private int checkpointEvery = 100;
+    @Parameter(names = "-expectedUrls", description = "Expected number of distinct URLs seen, to presize the seen set")
+    private int expectedUrls = 1 << 16;
+    @Parameter(names = "-seenFilter", description = "Pre-filter for the seen set: bloom or none")
+    private String seenFilterType = "bloom";
+    @Parameter(names = "-history", description = "Directory of URLs crawled by earlier runs, kept across runs")
+    private String historyDir;
+    @Parameter(names = "-historyPolicy", description = "What to do with URLs crawled by earlier runs: skip or deprioritize")
+    private String historyPolicy = "skip";
+    @Parameter(names = "-nearDup", description = "Skip link extraction on near-duplicates of recently crawled pages")
+    private boolean skipNearDuplicates = false;
+    @Parameter(names = "-nearDupBits", description = "Max differing SimHash bits for a near-duplicate (0-3)")
+    private int nearDupBits = 3;
+    @Parameter(names = "-nearDupWindow", description = "Number of recent pages checked for near-duplicates")
+    private int nearDupWindow = 10000;
+    @Parameter(names = "-threads", description = "Concurrent fetches; 1 crawls sequentially, 0 uses a virtual thread per fetch")
+    private int numThreads = 1;
+    @Parameter(names = "-pipeline", description = "Parse, score and queue fetched pages' links on separate stages of threads")
+    private boolean pipeline = false;
+    @Parameter(names = "-parseThreads", description = "Link extraction threads with -pipeline")
+    private int numParseThreads = 2;
+    @Parameter(names = "-scoreThreads", description = "Link scoring threads with -pipeline")
+    private int numScoreThreads = 2;
+    @Parameter(names = "-hostConnections", description = "Max concurrent fetches per host when crawling concurrently")
+    private int maxConnectionsPerHost = 2;
+    @Parameter(names = "-adaptiveRate", description = "Tune each host's concurrency and request gap to its latency and errors")
+    private boolean adaptiveRate = false;
+    @Parameter(names = "-connectTimeout", description = "Millis allowed to connect to a host")
+    private int connectTimeoutMillis = 10 * 1000;
+    @Parameter(names = "-readTimeout", description = "Millis allowed between bytes of a response")
+    private int readTimeoutMillis = 30 * 1000;
+    @Parameter(names = "-fetchDeadline", description = "Millis allowed for a whole request, body included")
+    private long fetchDeadlineMillis = 60 * 1000;
+    @Parameter(names = "-minRate", description = "Min bytes/s a response body must arrive at once under way")
+    private long minBytesPerSecond = 1024;
+    @Parameter(names = "-quarantine", description = "Seconds a host is skipped after repeated timeouts, doubling each time")
+    private int quarantineSeconds = 120;
+    @Parameter(names = "-retries", description = "Times a fetch failing on DNS, connect, 5xx or timeout is retried, with backoff")
+    private int maxRetries = 0;
+    @Parameter(names = "-fetcher", description = "Fetch engine: urlconnection, or async for a shared HTTP/2 HttpClient")
+    private String fetcherType = "urlconnection";
+    @Parameter(names = "-maxBody", description = "Max bytes read of a page body; longer pages are truncated")
+    private int maxBodyBytes = 10 * 1024 * 1024;
+    @Parameter(names = "-streamLinks", description = "Find a page's links while it downloads, not after")
+    private boolean streamLinks = false;
+    @Parameter(names = "-linkFilter", description = "Links to follow: suffix (.htm/.html only) or mime (any path that maps to HTML)")
+    private String linkFilter = "suffix";
+    @Parameter(names = "-dnsTtl", description = "Seconds a resolved host name is cached")
+    private int dnsTtlSeconds = 300;
+    @Parameter(names = "-dnsNegativeTtl", description = "Seconds a failed host name lookup is cached")
+    private int dnsNegativeTtlSeconds = 60;
+    @Parameter(names = "-recrawl", description = "Revalidate pages saved in -docs by an earlier crawl with conditional GETs")
+    private boolean recrawl = false;
+    @Parameter(names = "-resume", description = "Resume from the checkpoint in -checkpoint")
+    private boolean resume = false;
 
-    public static final String DISALLOW = "Disallow:";
-
-    private FileWriter fileWriter;
-    private PrintWriter pWriter;
 
     public WebCrawler() {
-        urlsToBeTraversed = new PriorityQueue<URLScore>(10, new URLScoreComparator());
-        seenUrls = new HashSet<String>();
     }
 
-    private void initialize() {
-        URL startUrl;
-        try {
-            startUrl = new URL(startingURLStr);
-        } catch (MalformedURLException me) {
-            System.out.println("Invalid starting URL: " + startingURLStr);
-            return;
+    private URLFrontier createFrontier() throws IOException {
+        if (frontierType.equals("bucket")) {
+            return new BucketURLQueue();
+        }
+        if (frontierType.equals("spill")) {
+            File dir;
+            if (spillDir != null) {
+                dir = new File(spillDir);
+            } else {
+                dir = java.nio.file.Files.createTempDirectory("crawl-frontier").toFile();
+                dir.deleteOnExit();
+            }
+            return new SpillingURLFrontier(hotSetSize, dir);
+        }
+        if (frontierType.equals("polite")) {
+            //the concurrent crawl loop must not sleep while holding crawlLock
+            return new PolitenessScheduler(maxActiveHosts, hostDelayMillis, isSequential());
+        }
+        if (frontierType.equals("topk")) {
+            topKFrontier = new MinMaxURLHeap(topKCapacity());
+            return topKFrontier;
+        }
+        if (!frontierType.equals("heap")) {
+            System.out.println("Unknown frontier type: " + frontierType + ", using heap");
+        }
+        return new IndexedURLHeap();
+    }
+
+    private int topKCapacity() {
+        long remaining = Math.max(maxNumPgs - numPagesProcessed, 1);
+        return (int) Math.min(Integer.MAX_VALUE, remaining * topKFactor);
+    }
+
+    /**
+     * Upper bound on what score() can return for any link, given the query:
+     * every query word in the anchor, or all ten context words matching
+     */
+    private int maxPossibleScore() {
+        if (query == null) {
+            return 0;
+        }
+        Set<String> queryWordsSet = new HashSet<String>(
+            Arrays.asList(query.toLowerCase().split("\\s+")));
+        int numQueryWords = queryWordsSet.size();
+        return Math.max(numQueryWords * 50, 40 + Math.max(10, numQueryWords));
+    }
+
+    private void initialize() throws IOException {
+        //both grow as needed
+        if (isSequential() || seenFilterType.equals("bloom")) {
+            //the filter in front of it is not thread-safe, so a concurrent crawl only uses it holding crawlLock
+            seenUrls = new LongHashSet(expectedUrls);
+        } else {
+            seenUrls = new ConcurrentLongHashSet(expectedUrls);
+        }
+        if (seenFilterType.equals("bloom")) {
+            bloomSeenUrls = new BloomFilteredSet(seenUrls, expectedUrls);
+            seenUrls = bloomSeenUrls;
+        }
+        if (historyDir != null) {
+            seenHistory = new PersistentFingerprintStore(new File(historyDir), 1 << 16);
+            if (!historyPolicy.equals("skip") && !historyPolicy.equals("deprioritize")) {
+                System.out.println("Unknown history policy: " + historyPolicy + ", using skip");
+                historyPolicy = "skip";
+            }
+        }
+        if (skipNearDuplicates) {
+            nearDuplicates = new SimHashIndex(nearDupWindow, nearDupBits);
+        }
+        //without a -docs directory every page fails to save, as it always has
+        if (dirSavePages != null && new File(dirSavePages).isDirectory()) {
+            pageIndex = new PageIndex(new File(dirSavePages));
+        }
+        if (recrawl && pageIndex != null) {
+            validators = new ValidatorStore(new File(dirSavePages));
+        }
+        BodyReader bodyReader = new BodyReader(maxBodyBytes, streamLinks);
+        deadlines = new FetchDeadlines(connectTimeoutMillis, readTimeoutMillis, fetchDeadlineMillis, minBytesPerSecond);
+        if (fetcherType.equals("async")) {
+            fetcher = new AsyncHttpFetcher(bodyReader, deadlines);
+        } else {
+            if (!fetcherType.equals("urlconnection")) {
+                System.out.println("Unknown fetcher type: " + fetcherType + ", using urlconnection");
+            }
+            fetcher = new URLConnectionFetcher(bodyReader, deadlines);
+        }
+        robots = new RobotsCache(fetcher);
+        rateControl = new HostRateController(maxConnectionsPerHost, adaptiveRate, quarantineSeconds * 1000L);
+        dns = new DnsCache(dnsTtlSeconds * 1000L, dnsNegativeTtlSeconds * 1000L);
+        if (maxRetries > 0) {
+            retries = new RetryQueue(maxRetries);
+        }
+        urlsToBeTraversed = createFrontier();
+        numPagesProcessed = 0;
+        if (checkpointDir != null) {
+            checkpoint = new CrawlCheckpoint(new File(checkpointDir));
         }
 
-        //add to URLQueue
-        URLScore startURLScore = new URLScore(startUrl);
-        urlsToBeTraversed.add(startURLScore);
+        if (resume && checkpoint != null && checkpoint.restore(urlsToBeTraversed, seenUrls)) {
+            numPagesProcessed = checkpoint.getRestoredPagesProcessed();
+            numPagesAtCheckpoint = numPagesProcessed;
+            if (topKFrontier != null) {
+                topKFrontier.setCapacity(topKCapacity());
+            }
+            if (debug) {
+                System.out.println("Resumed from checkpoint: " + numPagesProcessed
+                    + " pages crawled, " + urlsToBeTraversed.size() + " queued");
+            }
+        } else {
+            if (checkpoint != null) {
+                checkpoint.clear();
+            }
+            CrawlURL startUrl;
+            try {
+                startUrl = CrawlURL.parse(startingURLStr);
+            } catch (MalformedURLException me) {
+                System.out.println("Invalid starting URL: " + startingURLStr);
+                return;
+            }
+
+            //add to URLQueue
+            URLScore startURLScore = new URLScore(startUrl);
+            urlsToBeTraversed.add(startURLScore);
+            if (debug) {
+                System.out.println("Starting search at: " + startURLScore.getURLAsString());
+            }
+        }
         if (debug) {
-            System.out.println("Starting search at: " + startURLScore.getURLAsString());
             System.out.println("Max number of pages set to: " + maxNumPgs);
         }
 
@@ -66,32 +301,75 @@ public class WebCrawler {
         System.setProperties(newprops);
     }
 
-    private void crawl() {
-
-        int numPagesProcessed = 0;
-        while ((!urlsToBeTraversed.isEmpty()) && (numPagesProcessed < maxNumPgs)) {
-            URLScore topScoredPage = urlsToBeTraversed.poll();
+    /**
+     * True if one thread fetches and processes pages one at a time
+     */
+    private boolean isSequential() {
+        return numThreads == 1 && !pipeline;
+    }
 
-            if (debug) {
-                System.out.println("Downloading: "
-                    + topScoredPage.getURLAsString()
-                    + ". Score = " + topScoredPage.getScore());
+    private void crawl() {
+        if (!isSequential()) {
+            crawlConcurrently();
+            return;
+        }
+        while (numPagesProcessed < maxNumPgs) {
+            requeueReadyParkedPages();
+            URLScore retry = (retries == null) ? null : retries.pollDue();
+            if (retry == null && urlsToBeTraversed.isEmpty()) {
+                if (numParked == 0 && numRetriesWaiting() == 0) {
+                    break;
+                }
+                //only pages of hosts held off by rateControl, or waiting to be retried, are left
+                try {
+                    Thread.sleep(POLL_RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            URLScore topScoredPage = retry;
+            if (retry == null) {
+                topScoredPage = urlsToBeTraversed.poll();
+                if (topScoredPage == null) {
+                    //interrupted while waiting for a host to become ready
+                    break;
+                }
+                if (seenUrls.contains(topScoredPage.getCrawlURL().fingerprint())) {
+                    //a stale duplicate, e.g. a spilled copy of a page crawled since it went to disk
+                    continue;
+                }
             }
 
-            if (!robotSafe(topScoredPage.getURL())) {
-                if (debug) {
-                    System.out.println("robots.txt disallows crawling page: "
-                        + topScoredPage.getURLAsString());
+            String host = topScoredPage.getCrawlURL().getHost();
+            if (!rateControl.tryStart(host)) {
+                if (retry != null) {
+                    retries.delay(retry, POLL_RETRY_MILLIS);
+                } else {
+                    park(topScoredPage, host);
                 }
                 continue;
             }
+            CrawledPage crawled;
+            try {
+                crawled = fetchPage(topScoredPage);
+            } finally {
+                rateControl.finish(host);
+            }
 
-            //Ok to crawl, issue request for page
-            String pageContents =
-                    downloadPageToDirectory(topScoredPage.getURL());
-
-            seenUrls.add(topScoredPage.getURLAsString());
+            //robots.txt-disallowed pages are marked too, so robots.txt isn't asked again
+            markSeen(topScoredPage.getCrawlURL());
+            if (crawled == null) {
+                continue;
+            }
+            recordCrawled(topScoredPage.getCrawlURL(), crawled);
+            String pageContents = crawled.contents;
             numPagesProcessed ++;
+            //its links are not queued yet, so a checkpoint now saves it as still to crawl
+            pagesInFlight.put(topScoredPage.getCrawlURL().fingerprint(), topScoredPage);
+            checkpointIfDue();
+            pagesInFlight.remove(topScoredPage.getCrawlURL().fingerprint());
 
             if (numPagesProcessed >= maxNumPgs) {
                 if (debug) {
@@ -104,82 +382,745 @@ public class WebCrawler {
                 System.out.println("Received page: " + topScoredPage.getURLAsString());
             }
 
-            List<String> hrefOutlinksOnCurrentPage = findHrefOutlinks(pageContents);
+            if (topKFrontier != null) {
+                topKFrontier.setCapacity(topKCapacity());
+            }
+
+            if (isNearDuplicate(topScoredPage, nearDuplicates == null ? null : SimHash.of(pageContents),
+                    pageContents)) {
+                continue;
+            }
 
             processAndAddURLsOnCurrentPageToQueue(
-                hrefOutlinksOnCurrentPage, topScoredPage, pageContents);
+                findLinks(topScoredPage, crawled), pageContents);
         }
     }
 
-    private void processAndAddURLsOnCurrentPageToQueue (
-            List<String> hrefOutlinksOnCurrentPage,
-            URLScore topScoredPage, String pageContents) {
+    /**
+     * Downloads a page if robots.txt allows it; returns null if it doesn't,
+     * if the page turns out not to be HTML, or if it failed and is to be
+     * retried
+     */
+    private CrawledPage fetchPage(URLScore page) {
+        return fetchPageAsync(page).join();
+    }
 
-        for (String hrefLink : hrefOutlinksOnCurrentPage) {
+    /**
+     * A downloaded page
+     */
+    private static class CrawledPage {
+        String contents;
+        //null unless found with -streamLinks
+        List<LinkScanner.Link> links;
+        //false if the fetch failed and contents is the empty placeholder
+        boolean fetched;
 
-            ReturnValue retval = processHrefLink(hrefLink,
-                    topScoredPage.getURL(), pageContents);
+        CrawledPage(String contents, List<LinkScanner.Link> links, boolean fetched) {
+            this.contents = contents;
+            this.links = links;
+            this.fetched = fetched;
+        }
+    }
 
-            if (retval == null) {
-                continue;
+    /**
+     * As fetchPage, but completes on the fetcher's threads when it is async
+     */
+    private CompletableFuture<CrawledPage> fetchPageAsync(final URLScore page) {
+        if (debug) {
+            System.out.println("Downloading: "
+                + page.getURLAsString()
+                + ". Score = " + page.getScore());
+        }
+        final URL url = page.getURL();
+        Function<Void, CompletableFuture<Boolean>> checkRobots = new Function<Void, CompletableFuture<Boolean>>() {
+            public CompletableFuture<Boolean> apply(Void resolved) {
+                return robots.isAllowed(url);
             }
-            String link = retval.getUrl();
-            String anchor = retval.getAnchor();
-            List<String> prvFiveWords = retval.getPrvFiveWords();
-            List<String> nextFiveWords = retval.getNextFiveWords();
-
-            URL linkAsUrl;
-            try {
-                linkAsUrl = new URL(link);
-            } catch (MalformedURLException me) {
-                //invalid URL - skip and continue with next
-                if (debug) {
-                    System.out.println("Invalid URL: " + link);
+        };
+        //what follows the lookup must not run on, and hold up, the few DNS lookup threads
+        CompletableFuture<Void> resolved = resolveHost(url);
+        CompletableFuture<Boolean> allowed;
+        if (fetcher.isAsync()) {
+            allowed = resolved.thenComposeAsync(checkRobots);
+        } else {
+            //a blocking fetch carries on on the thread that asked for the page
+            resolved.join();
+            allowed = resolved.thenCompose(checkRobots);
+        }
+        return allowed.thenCompose(new Function<Boolean, CompletableFuture<CrawledPage>>() {
+            public CompletableFuture<CrawledPage> apply(Boolean allowed) {
+                if (!allowed) {
+                    if (debug) {
+                        System.out.println("robots.txt disallows crawling page: "
+                            + page.getURLAsString());
+                    }
+                    return CompletableFuture.<CrawledPage>completedFuture(null);
                 }
-                continue;
+                //Ok to crawl, issue request for page
+                final long startNanos = System.nanoTime();
+                return fetcher.fetch(url, conditionalHeaders(url), contentTypes).handle(new BiFunction<FetchedPage, Throwable, CrawledPage>() {
+                    public CrawledPage apply(FetchedPage fetched, Throwable failure) {
+                        recordFetch(page.getCrawlURL().getHost(), startNanos, fetched, failure);
+                        if (retries != null && scheduleRetry(page, fetched, failure)) {
+                            return null;
+                        }
+                        String pageContents = savePage(url, fetched, failure);
+                        if (pageContents == null) {
+                            return null;
+                        }
+                        //a 304 reuses the saved copy, whose links were not scanned
+                        boolean scanned = failure == null && fetched.isSuccess();
+                        return new CrawledPage(pageContents, scanned ? fetched.getLinks() : null,
+                            failure == null);
+                    }
+                });
             }
+        });
+    }
 
-            String urlLink = link;
-            int scoreOfLink = score(query, urlLink, anchor, prvFiveWords,
-                    nextFiveWords, pageContents);
+    /**
+     * Reports how a fetch went to rateControl
+     */
+    private void recordFetch(String host, long startNanos, FetchedPage fetched, Throwable failure) {
+        long latencyMillis = (System.nanoTime() - startNanos) / 1000000;
+        if (failure != null) {
+            Throwable cause = (failure instanceof CompletionException && failure.getCause() != null)
+                ? failure.getCause() : failure;
+            long quarantineMillis = rateControl.recordFailure(host,
+                cause instanceof SocketTimeoutException || cause instanceof java.net.http.HttpTimeoutException);
+            if (quarantineMillis > 0 && debug) {
+                System.out.println("Quarantining host " + host + " for " + quarantineMillis
+                    + "ms after repeated timeouts");
+            }
+        } else {
+            rateControl.recordResponse(host, latencyMillis, fetched.getStatusCode(),
+                HostRateController.parseRetryAfter(fetched.getHeader("Retry-After")));
+        }
+    }
 
-            boolean linkAlreadyVisited = seenUrls.contains(link);
-            if (linkAlreadyVisited) {
-                continue;
+    /**
+     * Puts page on the retry queue if its fetch failed in a way that may
+     * pass and it has retries left; returns whether it did
+     */
+    private boolean scheduleRetry(URLScore page, FetchedPage fetched, Throwable failure) {
+        RetryQueue.FailureClass failureClass =
+            RetryQueue.classify(failure == null ? fetched.getStatusCode() : 0, failure);
+        if (failureClass == null) {
+            retries.succeeded(page);
+            return false;
+        }
+        long minDelayMillis = 0;
+        if (failureClass == RetryQueue.FailureClass.DNS) {
+            //sooner would only find the failure still cached
+            minDelayMillis = dnsNegativeTtlSeconds * 1000L;
+        } else if (failure == null) {
+            minDelayMillis = HostRateController.parseRetryAfter(fetched.getHeader("Retry-After"));
+        }
+        long delayMillis = retries.schedule(page, failureClass, minDelayMillis);
+        if (delayMillis < 0) {
+            return false;
+        }
+        if (debug) {
+            System.out.println("Fetch failed (" + failureClass + "), retrying in " + delayMillis + "ms: "
+                + page.getURLAsString());
+        }
+        return true;
+    }
+
+    private int numRetriesWaiting() {
+        return (retries == null) ? 0 : retries.size();
+    }
+
+    /**
+     * Completes once url's host has been looked up, whether or not it
+     * resolved, so the robots.txt and page requests find the answer cached.
+     * A failed lookup still lets the request go ahead, as a proxy may
+     * resolve names this host cannot.
+     */
+    private CompletableFuture<Void> resolveHost(URL url) {
+        if (url.getHost().isEmpty()) {
+            //file: URLs
+            return CompletableFuture.completedFuture(null);
+        }
+        return dns.resolve(url.getHost()).handle(new BiFunction<InetAddress[], Throwable, Void>() {
+            public Void apply(InetAddress[] addresses, Throwable failure) {
+                return null;
             }
+        });
+    }
 
-            //check if priority queue currently has this outlink
-            URLScore matchingUrlInQueue = null;
-            for (URLScore pendingUrls : urlsToBeTraversed) {
-                if (pendingUrls.getURLAsString().equals(link)) {
-                    matchingUrlInQueue = pendingUrls;
-                    break;
+    /**
+     * Mirrors and templated pages: their links were already found on the
+     * original, so skip extraction. simHash is ignored without -nearDup,
+     * and null for pages too short to fingerprint, which are never skipped.
+     */
+    private boolean isNearDuplicate(URLScore page, Long simHash, String pageContents) {
+        if (nearDuplicates == null || simHash == null || !nearDuplicates.checkAndAdd(simHash)) {
+            return false;
+        }
+        numNearDuplicatePages ++;
+        numNearDuplicateChars += pageContents.length();
+        if (debug) {
+            System.out.println("Near-duplicate page, not extracting links: "
+                + page.getURLAsString());
+        }
+        return true;
+    }
+
+    private ExecutorService newFetchExecutor() {
+        if (numThreads > 0) {
+            return Executors.newFixedThreadPool(numThreads);
+        }
+        try {
+            //Java 21+; looked up reflectively so the crawler still runs on older JVMs
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21 or later; using a cached thread pool");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Sets a polled page aside until rateControl lets its host be fetched
+     */
+    private void park(URLScore page, String host) {
+        List<URLScore> parked = waitingForHost.get(host);
+        if (parked == null) {
+            parked = new ArrayList<URLScore>();
+            waitingForHost.put(host, parked);
+        }
+        parked.add(page);
+        numParked ++;
+    }
+
+    /**
+     * Requeues parked pages whose host may now be fetched. Pages parked
+     * behind a fetch in flight are requeued when it finishes; this catches
+     * those parked by their host's request gap or quarantine.
+     */
+    private void requeueReadyParkedPages() {
+        long now = System.currentTimeMillis();
+        if (numParked == 0 || now < nextParkedCheckTime) {
+            return;
+        }
+        nextParkedCheckTime = now + POLL_RETRY_MILLIS;
+        Iterator<Map.Entry<String, List<URLScore>>> it = waitingForHost.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, List<URLScore>> parked = it.next();
+            if (rateControl.millisUntilReady(parked.getKey()) == 0) {
+                it.remove();
+                numParked -= parked.getValue().size();
+                for (URLScore parkedPage : parked.getValue()) {
+                    requeue(parkedPage);
                 }
             }
-            //outlink already exists in queue to be processed; so just update score
-            if (matchingUrlInQueue != null) {
-                int origScore = matchingUrlInQueue.getScore();
-                int newScore = origScore + scoreOfLink;
-                URLScore newCopyOfExistingUrl = new URLScore(matchingUrlInQueue.getURL());
-                newCopyOfExistingUrl.updateScore(newScore);
-                urlsToBeTraversed.add(newCopyOfExistingUrl);
-                if (debug) {
-                    System.out.print("Adding " + scoreOfLink + " to score of: " + link + ". ");
-                    System.out.println("Total Score = " + newCopyOfExistingUrl.getScore());
+        }
+    }
+
+    /**
+     * Concurrent crawl loop: this thread takes URLs off the frontier and
+     * hands each to a fetch thread, keeping up to -threads fetches in
+     * flight overall and, per host, as many as rateControl allows. URLs
+     * whose host is at its limit are parked until one of that host's
+     * fetches completes, or its request gap has passed.
+     *
+     * With -pipeline a fetched page is not processed on its fetch thread
+     * but handed down a pipeline of CrawlStages: parsers extract its links,
+     * scorers score them and a single writer queues them on the frontier.
+     * A full stage queue holds up the stage feeding it, back to the fetch
+     * threads, so fetching slows to the pace of the slowest stage.
+     *
+     * crawlLock guards the frontier, the seen set and the other shared
+     * crawl state; downloading and link extraction happen outside it.
+     */
+    private void crawlConcurrently() {
+        int maxInFlight = (numThreads > 0) ? numThreads : MAX_VIRTUAL_FETCHES;
+        //an async fetcher completes on its own threads, so needs none of ours
+        ExecutorService fetchers = fetcher.isAsync() ? null : newFetchExecutor();
+        if (pipeline) {
+            startPipeline();
+        }
+        try {
+            while (true) {
+                final URLScore page;
+                synchronized (crawlLock) {
+                    requeueReadyParkedPages();
+                    boolean budgetLeft = numPagesProcessed + numInFlight < maxNumPgs;
+                    int numWaiting = numParked + numRetriesWaiting();
+                    if (numInFlight == 0 && (!budgetLeft || (urlsToBeTraversed.isEmpty() && numWaiting == 0))) {
+                        break;
+                    }
+                    boolean canFetch = budgetLeft && numFetching < maxInFlight;
+                    //due retries go ahead of the frontier
+                    URLScore retry = (canFetch && retries != null) ? retries.pollDue() : null;
+                    if (retry == null && (!canFetch || urlsToBeTraversed.isEmpty())) {
+                        if (numWaiting > 0) {
+                            //parked pages and retries may become fetchable without any fetch finishing
+                            crawlLock.wait(POLL_RETRY_MILLIS);
+                        } else {
+                            crawlLock.wait();
+                        }
+                        continue;
+                    }
+                    if (retry != null) {
+                        page = retry;
+                    } else {
+                        page = urlsToBeTraversed.poll();
+                        if (page == null) {
+                            //no host is ready yet under the politeness delay
+                            crawlLock.wait(POLL_RETRY_MILLIS);
+                            continue;
+                        }
+                        if (seenUrls.contains(page.getCrawlURL().fingerprint())) {
+                            continue;
+                        }
+                    }
+                    String host = page.getCrawlURL().getHost();
+                    if (!rateControl.tryStart(host)) {
+                        if (retry != null) {
+                            retries.delay(retry, POLL_RETRY_MILLIS);
+                        } else {
+                            park(page, host);
+                        }
+                        continue;
+                    }
+                    //marked now so that pages fetched meanwhile don't queue it again
+                    markSeen(page.getCrawlURL());
+                    pagesInFlight.put(page.getCrawlURL().fingerprint(), page);
+                    numInFlight ++;
+                    numFetching ++;
                 }
-            } else {
-                URLScore newUrlScore = new URLScore(linkAsUrl);
-                newUrlScore.updateScore(scoreOfLink);
-                urlsToBeTraversed.add(newUrlScore);
+                Runnable crawlPage = new Runnable() {
+                    public void run() {
+                        fetchPageAsync(page).whenComplete(new BiConsumer<CrawledPage, Throwable>() {
+                            public void accept(CrawledPage crawled, Throwable failure) {
+                                if (pipeline) {
+                                    handToPipeline(page, crawled);
+                                } else {
+                                    crawlPageConcurrently(page, crawled);
+                                }
+                            }
+                        });
+                    }
+                };
+                if (fetchers == null) {
+                    crawlPage.run();
+                } else {
+                    fetchers.execute(crawlPage);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (fetchers != null) {
+                fetchers.shutdown();
+                try {
+                    fetchers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (pipeline) {
+                parseStage.shutdown();
+                scoreStage.shutdown();
+                enqueueStage.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Parses and queues the links of a fetched page, then frees its fetch
+     * slot; crawled is null if the page was not fetched
+     */
+    private void crawlPageConcurrently(URLScore page, CrawledPage crawled) {
+        try {
+            if (crawled == null || !acceptPage(page, crawled)) {
+                return;
+            }
+
+            List<LinkCandidate> links = findLinks(page, crawled);
+            scoreCandidates(links, crawled.contents);
+
+            synchronized (crawlLock) {
+                processAndAddURLsOnCurrentPageToQueue(links, crawled.contents);
+            }
+        } finally {
+            synchronized (crawlLock) {
+                releaseHost(page);
+                pagesInFlight.remove(page.getCrawlURL().fingerprint());
+                numInFlight --;
+            }
+        }
+    }
+
+    /**
+     * Counts a fetched page against the budget; returns whether its links
+     * should be extracted
+     */
+    private boolean acceptPage(URLScore page, CrawledPage crawled) {
+        String pageContents = crawled.contents;
+        Long simHash = (nearDuplicates == null) ? null : SimHash.of(pageContents);
+        synchronized (crawlLock) {
+            recordCrawled(page.getCrawlURL(), crawled);
+            numPagesProcessed ++;
+            checkpointIfDue();
+            if (numPagesProcessed >= maxNumPgs) {
                 if (debug) {
-                    System.out.println("Adding: " + link +
-                        " with score = " + scoreOfLink + " to queue.");
+                    System.out.println("Max limit on number of pages reached");
                 }
+                return false;
+            }
+            if (debug) {
+                System.out.println("Received page: " + page.getURLAsString());
+            }
+            if (topKFrontier != null) {
+                topKFrontier.setCapacity(topKCapacity());
+            }
+            return !isNearDuplicate(page, simHash, pageContents);
+        }
+    }
+
+    /**
+     * Frees the fetch slot of a page whose fetch is over, and requeues the
+     * pages parked behind it; call holding crawlLock
+     */
+    private void releaseHost(URLScore page) {
+        String host = page.getCrawlURL().getHost();
+        numFetching --;
+        rateControl.finish(host);
+        List<URLScore> parked = waitingForHost.remove(host);
+        if (parked != null) {
+            numParked -= parked.size();
+            for (URLScore parkedPage : parked) {
+                requeue(parkedPage);
             }
         }
+        crawlLock.notifyAll();
+    }
+
+    /**
+     * A fetched page on its way down the pipeline
+     */
+    private static class PageWork {
+        URLScore page;
+        //null if the page was not fetched
+        CrawledPage crawled;
+        String contents;
+        List<LinkCandidate> links;
+
+        PageWork(URLScore page, CrawledPage crawled) {
+            this.page = page;
+            this.crawled = crawled;
+            contents = (crawled == null) ? null : crawled.contents;
+        }
+    }
+
+    private void startPipeline() {
+        parseStage = new CrawlStage<PageWork>("parse", numParseThreads, STAGE_QUEUE_CAPACITY,
+            new CrawlStage.Worker<PageWork>() {
+                public void process(PageWork work) throws InterruptedException {
+                    parsePage(work);
+                }
+            });
+        scoreStage = new CrawlStage<PageWork>("score", numScoreThreads, STAGE_QUEUE_CAPACITY,
+            new CrawlStage.Worker<PageWork>() {
+                public void process(PageWork work) throws InterruptedException {
+                    scoreLinks(work);
+                }
+            });
+        //a single writer, so frontier updates never queue up on crawlLock behind each other
+        enqueueStage = new CrawlStage<PageWork>("enqueue", 1, STAGE_QUEUE_CAPACITY,
+            new CrawlStage.Worker<PageWork>() {
+                public void process(PageWork work) {
+                    enqueueLinks(work);
+                }
+            });
+        parseStage.start();
+        scoreStage.start();
+        enqueueStage.start();
+    }
+
+    /**
+     * Frees the fetch slot of a fetched page, then waits for room in the
+     * parse stage; runs on the fetch thread
+     */
+    private void handToPipeline(URLScore page, CrawledPage crawled) {
+        synchronized (crawlLock) {
+            releaseHost(page);
+        }
+        try {
+            parseStage.put(new PageWork(page, crawled));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pageDone(page);
+        }
+    }
+
+    private void parsePage(PageWork work) throws InterruptedException {
+        boolean handedOn = false;
+        try {
+            if (work.contents == null || !acceptPage(work.page, work.crawled)) {
+                return;
+            }
+            work.links = findLinks(work.page, work.crawled);
+            scoreStage.put(work);
+            handedOn = true;
+        } finally {
+            if (!handedOn) {
+                pageDone(work.page);
+            }
+        }
+    }
+
+    private void scoreLinks(PageWork work) throws InterruptedException {
+        boolean handedOn = false;
+        try {
+            scoreCandidates(work.links, work.contents);
+            enqueueStage.put(work);
+            handedOn = true;
+        } finally {
+            if (!handedOn) {
+                pageDone(work.page);
+            }
+        }
+    }
+
+    private void enqueueLinks(PageWork work) {
+        try {
+            synchronized (crawlLock) {
+                offerLinks(work.links, work.contents);
+            }
+        } finally {
+            pageDone(work.page);
+        }
+    }
+
+    /**
+     * Ends a page's way down the pipeline
+     */
+    private void pageDone(URLScore page) {
+        synchronized (crawlLock) {
+            pagesInFlight.remove(page.getCrawlURL().fingerprint());
+            numInFlight --;
+            crawlLock.notifyAll();
+        }
+    }
+
+    /**
+     * Puts a polled page back on the frontier, merging with any copy
+     * that was queued since it was polled
+     */
+    private void requeue(URLScore page) {
+        if (seenUrls.contains(page.getCrawlURL().fingerprint())) {
+            return;
+        }
+        URLScore queued = urlsToBeTraversed.get(page.getCrawlURL());
+        if (queued != null) {
+            urlsToBeTraversed.increaseScore(queued, page.getScore());
+        } else {
+            urlsToBeTraversed.add(page);
+        }
+    }
+
+    /**
+     * Saves a checkpoint if checkpointEvery pages have been counted since
+     * the last one; call right after counting a page, holding crawlLock in
+     * a concurrent crawl. A save skipped because the last one is still
+     * being written is tried again with the next page.
+     */
+    private void checkpointIfDue() {
+        if (checkpoint != null && numPagesProcessed >= numPagesAtCheckpoint + checkpointEvery
+                && checkpoint.save(urlsToBeTraversed, pagesOffFrontier(), numPagesProcessed)) {
+            numPagesAtCheckpoint = numPagesProcessed;
+        }
+    }
+
+    /**
+     * Pages taken off the frontier whose links are not queued yet: those
+     * being fetched or processed, parked behind their host, or waiting to
+     * be retried. Call holding crawlLock in a concurrent crawl
+     */
+    private Collection<URLScore> pagesOffFrontier() {
+        //by fingerprint: a failed fetch is in flight until its retry has been scheduled
+        Map<Long, URLScore> pages = new HashMap<Long, URLScore>(pagesInFlight);
+        for (List<URLScore> parked : waitingForHost.values()) {
+            for (URLScore page : parked) {
+                pages.put(page.getCrawlURL().fingerprint(), page);
+            }
+        }
+        if (retries != null) {
+            for (URLScore page : retries.waitingPages()) {
+                pages.put(page.getCrawlURL().fingerprint(), page);
+            }
+        }
+        return pages.values();
+    }
+
+    private void markSeen(CrawlURL url) {
+        seenUrls.add(url.fingerprint());
+        if (checkpoint != null) {
+            checkpoint.recordSeen(url.fingerprint());
+        }
+    }
+
+    /**
+     * Adds a page the server answered to the history, so later runs skip
+     * it; robots.txt-disallowed pages and failed fetches are left out.
+     * Call holding crawlLock in a concurrent crawl
+     */
+    private void recordCrawled(CrawlURL url, CrawledPage crawled) {
+        if (seenHistory != null && crawled.fetched) {
+            seenHistory.add(url.fingerprint());
+        }
+    }
+
+    private void processAndAddURLsOnCurrentPageToQueue (
+            List<LinkCandidate> linksOnCurrentPage, String pageContents) {
+
+        offerLinks(linksOnCurrentPage, pageContents);
         System.out.println();
     }
 
+    /**
+     * The links of a crawled page: those found as it downloaded, or else
+     * those found in its contents now
+     */
+    private List<LinkCandidate> findLinks(URLScore page, CrawledPage crawled) {
+        List<LinkCandidate> candidates = new ArrayList<LinkCandidate>();
+        if (crawled.links != null) {
+            for (LinkScanner.Link link : crawled.links) {
+                addCandidate(candidates, processScannedLink(link, page.getURL()));
+            }
+        } else {
+            for (String hrefLink : findHrefOutlinks(crawled.contents)) {
+                addCandidate(candidates, processHrefLink(hrefLink, page.getURL(), crawled.contents));
+            }
+        }
+        return candidates;
+    }
+
+    private void offerLinks(List<LinkCandidate> candidates, String pageContents) {
+        int bestCaseScore = maxPossibleScore();
+        for (LinkCandidate candidate : candidates) {
+            offerLink(candidate, bestCaseScore, pageContents);
+        }
+    }
+
+    /**
+     * An outlink of a page, with its score once it has one
+     */
+    private static class LinkCandidate {
+        static final int UNSCORED = -1;
+
+        CrawlURL url;
+        ReturnValue hrefInfo;
+        int score = UNSCORED;
+
+        LinkCandidate(CrawlURL url, ReturnValue hrefInfo) {
+            this.url = url;
+            this.hrefInfo = hrefInfo;
+        }
+    }
+
+    /**
+     * Adds the link in retval to candidates, unless it is not one to crawl
+     */
+    private void addCandidate(List<LinkCandidate> candidates, ReturnValue retval) {
+        if (retval == null) {
+            return;
+        }
+        String link = retval.getUrl();
+
+        CrawlURL linkAsUrl;
+        try {
+            linkAsUrl = CrawlURL.parse(link);
+        } catch (MalformedURLException me) {
+            //invalid URL - skip and continue with next
+            if (debug) {
+                System.out.println("Invalid URL: " + link);
+            }
+            return;
+        }
+        candidates.add(new LinkCandidate(linkAsUrl, retval));
+    }
+
+    /**
+     * Scores candidates ahead of offerLinks, so a concurrent crawl does not
+     * score them holding crawlLock
+     */
+    private void scoreCandidates(List<LinkCandidate> candidates, String pageContents) {
+        //links already seen or pruned are scored for nothing, but telling needs crawlLock
+        for (LinkCandidate candidate : candidates) {
+            candidate.score = score(candidate, pageContents);
+        }
+    }
+
+    private int score(LinkCandidate candidate, String pageContents) {
+        ReturnValue retval = candidate.hrefInfo;
+        return score(query, retval.getUrl(), retval.getAnchor(), retval.getPrvFiveWords(),
+                retval.getNextFiveWords(), pageContents);
+    }
+
+    /**
+     * Queues an outlink, or adds its score to the queued copy; scores it
+     * first unless scoreCandidates already has
+     */
+    private void offerLink(LinkCandidate candidate, int bestCaseScore, String pageContents) {
+        CrawlURL linkAsUrl = candidate.url;
+        String link = candidate.hrefInfo.getUrl();
+
+        boolean linkAlreadyVisited = seenUrls.contains(linkAsUrl.fingerprint());
+        if (linkAlreadyVisited) {
+            return;
+        }
+
+        //check if priority queue currently has this outlink
+        URLScore matchingUrlInQueue = urlsToBeTraversed.get(linkAsUrl);
+
+        //crawled by an earlier run: drop it, or queue it behind everything new
+        boolean knownFromHistory = matchingUrlInQueue == null && seenHistory != null
+            && seenHistory.contains(linkAsUrl.fingerprint());
+        if (knownFromHistory && historyPolicy.equals("skip")) {
+            numKnownUrlsSkipped ++;
+            return;
+        }
+
+        //a new link that could not displace anything in a full top-K frontier
+        if (matchingUrlInQueue == null && topKFrontier != null
+                && topKFrontier.isFull() && bestCaseScore <= topKFrontier.minScore()) {
+            numLinksPruned ++;
+            return;
+        }
+
+        int scoreOfLink;
+        if (knownFromHistory) {
+            scoreOfLink = 0;
+        } else if (candidate.score != LinkCandidate.UNSCORED) {
+            scoreOfLink = candidate.score;
+        } else {
+            scoreOfLink = score(candidate, pageContents);
+        }
+        //outlink already exists in queue to be processed; so just update score
+        if (matchingUrlInQueue != null) {
+            urlsToBeTraversed.increaseScore(matchingUrlInQueue, scoreOfLink);
+            if (debug) {
+                System.out.print("Adding " + scoreOfLink + " to score of: " + link + ". ");
+                System.out.println("Total Score = " + matchingUrlInQueue.getScore());
+            }
+        } else {
+            URLScore newUrlScore = new URLScore(linkAsUrl);
+            newUrlScore.updateScore(scoreOfLink);
+            urlsToBeTraversed.add(newUrlScore);
+            //resolve a new host while the URL waits in the frontier
+            dns.prefetch(linkAsUrl.getHost());
+            if (debug) {
+                System.out.println("Adding: " + link +
+                    " with score = " + scoreOfLink + " to queue.");
+            }
+        }
+    }
+
     private int score(String queryMixedCase, String urlOfOutlink, String anchor,
                       List<String> prvFiveWords, List<String> nextFiveWords,
                       String pageContents) {
@@ -293,6 +1234,18 @@ public class WebCrawler {
         return new ReturnValue(prevFiveWords, nextFiveWords, anchorText, newUrl.toString());
     }
 
+    /**
+     * As processHrefLink, for a link found by a LinkScanner
+     */
+    ReturnValue processScannedLink(LinkScanner.Link link, URL oldUrl) {
+        URL newUrl = extractUrl(link.getElement(), oldUrl);
+        if (newUrl == null) {
+            return null;
+        }
+        return new ReturnValue(link.getPrvFiveWords(), link.getNextFiveWords(),
+            extractAnchor(link.getElement()), newUrl.toString());
+    }
+
     private List<String> getNextFiveWords(String hrefLink, String pageContent) {
         int startSearchIdx = pageContent.indexOf(hrefLink) + hrefLink.length() + 1;
         if (startSearchIdx == pageContent.length()) {
@@ -368,7 +1321,8 @@ public class WebCrawler {
         int urlStartIdx = hrefLink.indexOf("\"", index) + 1;
         int urlEndIdx = hrefLink.indexOf("\"", urlStartIdx + 1);
         String urlStr = hrefLink.substring(urlStartIdx, urlEndIdx);
-        if (!urlStr.endsWith("html") && !urlStr.endsWith("htm")) {
+        boolean mimeFilter = linkFilter.equals("mime");
+        if (!mimeFilter && !urlStr.endsWith("html") && !urlStr.endsWith("htm")) {
             return null;
         }
         URL newUrl;
@@ -377,6 +1331,9 @@ public class WebCrawler {
         } catch (MalformedURLException e) {
             return null;
         }
+        if (mimeFilter && !contentTypes.isCrawlableLink(newUrl)) {
+            return null;
+        }
         return newUrl;
     }
 
@@ -402,99 +1359,210 @@ public class WebCrawler {
         return outHreflinkUrls;
     }
 
-    private boolean robotSafe(URL url) {
-        String strHost = url.getHost();
-        String strRobot = "http://" + strHost + "/robots.txt";
-        URL urlRobot;
-        //try to create robots.txt URL
-        try {
-            urlRobot = new URL(strRobot);
-        } catch (MalformedURLException e) {
-            //something weird is happening; don't trust it
-            return false;
+    /**
+     * If-None-Match / If-Modified-Since for a page whose saved copy can
+     * stand in for it should the server answer 304
+     */
+    private Map<String, String> conditionalHeaders(URL url) {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (validators == null || pageIndex.fileForUrl(url.toString()) == null) {
+            return headers;
         }
-        String strCommands;
-        try {
-            InputStream urlRobotStream = urlRobot.openStream();
-            //read in the entire page
-            byte[] b = new byte[1000];
-            int numBytesRead = urlRobotStream.read(b);
-            strCommands = new String(b, 0, numBytesRead);
-            while (numBytesRead != -1) {
-                numBytesRead = urlRobotStream.read(b);
-                if (numBytesRead != -1) {
-                    String newCommands = new String(b, 0, numBytesRead);
-                    strCommands += newCommands;
-                }
+        ValidatorStore.Validators saved = validators.get(url.toString());
+        if (saved != null) {
+            if (saved.getETag() != null) {
+                headers.put("If-None-Match", saved.getETag());
             }
-            urlRobotStream.close();
-        } catch (IOException e) {
-            //no robots.txt file; OK to search
-            return true;
-        }
-
-        String strFileUrl = url.getFile();
-        int index = 0;
-        //check each disallow statement to see if it's for this page (using getFile())
-        while ((index = strCommands.indexOf(DISALLOW, index)) != -1) {
-            index += DISALLOW.length();
-            String strPath = strCommands.substring(index);
-            StringTokenizer st = new StringTokenizer(strPath);
-
-            if (!st.hasMoreTokens()) {
-                break;
-            }
-            //get first token
-            String strDisallowed = st.nextToken();
-            if (strFileUrl.indexOf(strDisallowed) == 0) {
-                return false;
+            if (saved.getLastModified() != null) {
+                headers.put("If-Modified-Since", saved.getLastModified());
             }
         }
-        return true;
+        return headers;
     }
 
-    /**Download the contents of the URL*/
-    String downloadPageToDirectory(URL url) {
-        try {
-            URLConnection urlConnection = url.openConnection();
-            urlConnection.setAllowUserInteraction(false);
-            InputStream urlStream = urlConnection.getInputStream();
-            byte[] b = new byte[1000];
-            int numBytesRead = urlStream.read(b);
-            String pageContent = new String(b, 0, numBytesRead);
-            while (numBytesRead != -1) {
-                numBytesRead = urlStream.read(b);
-                if (numBytesRead != -1) {
-                    String newContent = new String(b, 0, numBytesRead);
-                    pageContent = pageContent + newContent;
+    /**
+     * Saves a downloaded page and returns its contents, or "" if the
+     * download failed. On a 304 the contents come from the saved copy.
+     */
+    private String savePage(URL url, FetchedPage fetched, Throwable failure) {
+        if (failure == null && fetched.isNotModified() && pageIndex != null) {
+            String storedFileName = pageIndex.fileForUrl(url.toString());
+            if (storedFileName != null) {
+                try {
+                    String pageContent = readSavedPage(storedFileName);
+                    numNotModified.incrementAndGet();
+                    return pageContent;
+                } catch (IOException e) {
+                    System.out.println("Could not read saved copy of URL " + url.toString());
+                    return "";
                 }
             }
-            writePageContentToDisk(pageContent, url.getFile());
+        }
+        if (failure != null || !fetched.isSuccess()) {
+            System.out.println("Could not open URL " + url.toString());
+            return "";
+        }
+        if (fetched.isRejected()) {
+            if (debug) {
+                System.out.println("Not HTML (" + fetched.getHeader("Content-Type") + "), abandoned: "
+                    + url.toString());
+            }
+            numRejectedPages.incrementAndGet();
+            numWireBytes.addAndGet(fetched.getWireLength());
+            return null;
+        }
+        try {
+            if (fetched.isTruncated()) {
+                numTruncatedBodies.incrementAndGet();
+            }
+            numWireBytes.addAndGet(fetched.getWireLength());
+            numBodyBytes.addAndGet(fetched.getBody().length);
+            String pageContent = fetched.getText();
+            //for de-duplication in the page store; hashed as it downloaded
+            byte[] contentHash = fetched.getContentHash();
+            if (contentHash == null) {
+                contentHash = BodyReader.newContentDigest().digest(fetched.getBody());
+            }
+            writePageContentToDisk(pageContent, url, toHex(contentHash));
+            if (validators != null) {
+                validators.record(url.toString(), fetched.getHeader("ETag"), fetched.getHeader("Last-Modified"));
+            }
             return pageContent;
         } catch (IOException e) {
-            System.out.println("Could not open URL " + url.toString());
+            System.out.println("Could not save URL " + url.toString());
             return "";
         }
     }
 
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Contents of a page saved by writePageContentToDisk
+     */
+    private String readSavedPage(String fileName) throws IOException {
+        //written with the platform charset by a PrintWriter, which appends a line separator
+        byte[] bytes = java.nio.file.Files.readAllBytes(new File(dirSavePages, fileName).toPath());
+        String pageContent = new String(bytes);
+        String lineSeparator = System.lineSeparator();
+        if (pageContent.endsWith(lineSeparator)) {
+            pageContent = pageContent.substring(0, pageContent.length() - lineSeparator.length());
+        }
+        return pageContent;
+    }
+
     //assumes unix style directory structure
-    void writePageContentToDisk(String pageContent, String urlFile) throws IOException {
-        String rawFileName = urlFile;
+    void writePageContentToDisk(String pageContent, URL url, String contentHash) throws IOException {
+        String rawFileName = url.getFile();
         //get the file name before the .html: eg: mammals.html in "../xyz/mammals.html"
         int lastIndexofSlash = rawFileName.lastIndexOf('/');
         String fileName = rawFileName.substring(lastIndexofSlash + 1);
+        if (fileName.isEmpty()) {
+            //a directory, as -linkFilter mime allows
+            fileName = "index.html";
+        }
+        if (pageIndex == null) {
+            writePageFile(pageContent, fileName);
+            return;
+        }
+        //lookup, write and record as one step, so pages.idx never names a file
+        //another thread has since overwritten, nor a body saved twice
+        synchronized (pageIndex) {
+            //same bytes already saved under another URL: just point this URL at them
+            String storedFileName = pageIndex.fileForHash(contentHash);
+            if (storedFileName != null) {
+                pageIndex.record(contentHash, storedFileName, url.toString());
+                numDuplicateBodies ++;
+                numDuplicateBodyChars += pageContent.length();
+                return;
+            }
+            writePageFile(pageContent, fileName);
+            pageIndex.record(contentHash, fileName, url.toString());
+        }
+    }
+
+    private void writePageFile(String pageContent, String fileName) throws IOException {
         String fileSavePages = dirSavePages + "/" + fileName;
         File outFile = new File(fileSavePages);
-        fileWriter = new FileWriter(outFile);
-        pWriter = new PrintWriter(fileWriter);
+        FileWriter fileWriter = new FileWriter(outFile);
+        PrintWriter pWriter = new PrintWriter(fileWriter);
         pWriter.println(pageContent);
         pWriter.close();
     }
 
+    /**
+     * Flushes persistent state and prints crawl statistics
+     */
+    private void finish() throws IOException {
+        if (seenHistory != null) {
+            seenHistory.close();
+            if (debug) {
+                System.out.println("History: " + numKnownUrlsSkipped
+                    + " links skipped as crawled by an earlier run");
+            }
+        }
+        if (bloomSeenUrls != null && debug) {
+            System.out.printf("Seen filter: %d lookups answered by filter, %d false positives (%.4f%%)%n",
+                bloomSeenUrls.getNumFilterNegatives(), bloomSeenUrls.getNumFalsePositives(),
+                100 * bloomSeenUrls.falsePositiveRate());
+        }
+        if (topKFrontier != null && debug) {
+            System.out.println("Top-K frontier: " + numLinksPruned
+                + " links pruned before scoring, "
+                + topKFrontier.getNumEvicted() + " URLs evicted");
+        }
+        if (nearDuplicates != null && debug) {
+            System.out.println("Near-duplicates: " + numNearDuplicatePages + " pages ("
+                + numNearDuplicateChars + " chars) not scanned for outlinks");
+        }
+        if (debug) {
+            System.out.println("Fetcher: " + numTruncatedBodies.get()
+                + " bodies truncated at " + maxBodyBytes + " bytes, "
+                + numWireBytes.get() + " bytes received for " + numBodyBytes.get() + " bytes of pages, "
+                + numRejectedPages.get() + " non-HTML responses abandoned");
+            dns.printStats();
+            rateControl.printStats();
+            if (retries != null) {
+                retries.printStats();
+            }
+            if (parseStage != null) {
+                parseStage.printStats();
+                scoreStage.printStats();
+                enqueueStage.printStats();
+            }
+            if (validators != null) {
+                System.out.println("Recrawl: " + numNotModified.get()
+                    + " pages not modified, reused from " + dirSavePages);
+            }
+            System.out.println("Page store: " + numDuplicateBodies + " duplicate bodies ("
+                + numDuplicateBodyChars + " chars) recorded without rewriting");
+        }
+        fetcher.close();
+        deadlines.close();
+        dns.close();
+        if (validators != null) {
+            validators.close();
+        }
+        if (pageIndex != null) {
+            pageIndex.close();
+        }
+        if (checkpoint != null) {
+            checkpoint.close(urlsToBeTraversed, pagesOffFrontier(), numPagesProcessed);
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         WebCrawler webCrawler = new WebCrawler();
         new JCommander(webCrawler, args);
+        DnsCache.configureJdkCache(webCrawler.dnsTtlSeconds * 1000L, webCrawler.dnsNegativeTtlSeconds * 1000L);
         webCrawler.initialize();
         webCrawler.crawl();
+        webCrawler.finish();
     }
 }